@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of Lockore application.
+ *
+ * Lockoree is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Lockore distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lockore.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Random;
+
+import madrat.storage.BinaryField;
+import madrat.storage.IntegerField;
+import madrat.storage.MemoryBackend;
+import madrat.storage.Record;
+import madrat.storage.Storage;
+import madrat.storage.StringField;
+
+/**
+ * Records' save and parse benchmark: Storage over MemoryBackend
+ * Inserts synthetic records (6 fields each) into a locked store, then reopens
+ * the store and loads every record; the best of several rounds is printed.
+ * It is not a part of the MIDlet, run it on a desktop JVM with the MIDP/CLDC API
+ * and the crypto implementations in the classpath (see doc/devel.md).
+ */
+public final class StorageBenchmark {
+    private static final String STORE = "bench";
+    private static final byte[] KEY = { 'p', 'a', 's', 's', 'w', 'o', 'r', 'd' };
+    private static final byte[] SALT = { 's', 'a', 'l', 't' };
+
+    private StorageBenchmark() {
+    }
+
+    /**
+     * @param args - [records [rounds]]
+     */
+    public static void main(String[] args) throws Exception {
+        final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 3000;
+        final int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        long bestInsert = Long.MAX_VALUE, bestUnlock = Long.MAX_VALUE, bestLoad = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; ++round) {
+            Storage.setBackend(new MemoryBackend(64 << 20));
+            Storage.createStore(STORE, "Benchmark", null, 0);
+
+            Storage s = new Storage(STORE);
+            s.lock(KEY, SALT);
+            s.destroy();
+
+            s = new Storage(STORE);
+            s.unlock(KEY, SALT);
+            final Random rnd = new Random(1);
+            long t = System.currentTimeMillis();
+            s.beginBatch();
+            for (int i = 0; i < count; ++i)
+                s.insertNew(createRecord(s, rnd, i));
+            s.commitBatch();
+            bestInsert = Math.min(bestInsert, System.currentTimeMillis() - t);
+            s.destroy();
+
+            s = new Storage(STORE);
+            t = System.currentTimeMillis();
+            s.unlock(KEY, SALT);
+            bestUnlock = Math.min(bestUnlock, System.currentTimeMillis() - t);
+
+            t = System.currentTimeMillis();
+            int fields = 0;
+            final int size = s.size();
+            for (int i = 0; i < size; ++i)
+                fields += s.load(i).size();
+            bestLoad = Math.min(bestLoad, System.currentTimeMillis() - t);
+            s.destroy();
+
+            if (count != size || 6 * count != fields)
+                throw new IllegalStateException("Records " + size + ", fields " + fields);
+        }
+
+        System.out.println(count + " records, best of " + rounds + ": insert " + bestInsert
+                + " ms, unlock " + bestUnlock + " ms, load " + bestLoad + " ms");
+    }
+
+    private static Record createRecord(Storage s, Random rnd, int i) {
+        final Record r = s.newRecord();
+        r.setName("record " + i);
+        r.append(new StringField(false, "Login", 0, 0, "user" + i));
+        r.append(new StringField(true, "Password", 0, 0, getString(rnd, 8, 20)));
+        r.append(new StringField(false, "URL", 0, 0, "https://example.com/" + i));
+        r.append(new IntegerField(false, "Counter", 0, 0, i * 12345L));
+        r.append(new StringField(false, "Note", 0, 0, getString(rnd, 40, 200)));
+        r.append(new BinaryField(false, "Data", 0, 0, new byte[32]));
+        return r;
+    }
+
+    private static String getString(Random rnd, int min, int max) {
+        final int length = min + (rnd.nextInt() & 0x7FFFFFFF) % (max - min + 1);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; ++i)
+            chars[i] = (char)('a' + (rnd.nextInt() & 0x7FFFFFFF) % 26);
+        return new String(chars);
+    }
+}
@@ -26,6 +26,7 @@ import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Displayable;
 
 import madrat.i18n.I18N;
+import madrat.storage.AttachmentField;
 import madrat.storage.BinaryField;
 import madrat.storage.Field;
 import madrat.storage.Record;
@@ -140,7 +141,7 @@ final class AddFileList extends ListScreen {
 
             Object hint;
             try {
-                hint = (null == record_)?addNewRecord(name, is):addNewField(name, is);
+                hint = (null == record_)?addNewRecord(name, is):addNewField(name, uri, is);
             }
             finally {
                 is.close();
@@ -187,12 +188,19 @@ final class AddFileList extends ListScreen {
         return r;
     }
 
-    private Object addNewField(String name, InputStream is) throws IOException {
+    private Object addNewField(String name, String uri, InputStream is) throws IOException {
         byte[] data = null;
 
+        final int type = getExtensionIcon(name);
         final long len = is.available();
-        if (len > Integer.MAX_VALUE)
-            throw new OutOfMemoryError(I18N.get("File too large ({0})", I18N.formatBytes(len)));
+
+        // a file, which isn't shown as a text or hex, is streamed into attachment on record's saving
+        final boolean isText = (Midlet.ICON_URI == type || Midlet.ICON_TEXT == type);
+        if ((isText ? len : len * 2) > Midlet.getMaxString()) {
+            Field f = new AttachmentField(false, name, Midlet.ICON_NULL, Midlet.DEFAULT_FORMAT, new FileAttachment(uri));
+            record_.append(f);
+            return f;
+        }
 
         if (len > 0) {
             data = Midlet.alloc((int)len);
@@ -203,7 +211,7 @@ final class AddFileList extends ListScreen {
 
         Field f;
         int icon = Midlet.ICON_NULL;
-        switch (getExtensionIcon(name)) {
+        switch (type) {
             case Midlet.ICON_URI:
                 icon = Midlet.ICON_URI;
             case Midlet.ICON_TEXT:
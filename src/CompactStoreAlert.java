@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of Lockore application.
+ *
+ * Lockoree is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Lockore distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lockore.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import javax.microedition.lcdui.Alert;
+import javax.microedition.lcdui.AlertType;
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.CommandListener;
+import javax.microedition.lcdui.Displayable;
+import javax.microedition.lcdui.Gauge;
+
+import madrat.i18n.I18N;
+import madrat.storage.IProgress;
+import madrat.storage.Storage;
+
+/**
+ * Compact store (copy into a new RMS store) in background
+ */
+final class CompactStoreAlert extends Alert implements Runnable, CommandListener, IProgress {
+    protected final Gauge indicator_;
+    protected final Thread thread_;
+    protected final String storeName_;
+    protected volatile boolean isCancelled_ = false;
+
+    public CompactStoreAlert(String storeName) {
+        super(I18N.get("Compact"), I18N.get("Please wait"), null, AlertType.INFO);
+
+        storeName_ = storeName;
+        setTimeout(FOREVER);
+        indicator_ = new Gauge(null, false, 100, 0);
+        setIndicator(indicator_);
+        addCommand(Midlet.CANCEL);
+
+        setCommandListener(this);
+
+        thread_ = new Thread(this);
+        thread_.start();
+    }
+
+    public void run() {
+        Storage store = null;
+        try {
+            Thread.sleep(250L);
+
+            store = new Storage(storeName_);
+            final int size = store.getStorageSize();
+            if (!store.compact(Midlet.generateStoreName(), this))
+                throw new InterruptedException();
+
+            final int freed = size - store.getStorageSize();
+            stopUI(null, I18N.get("Freed {0}", I18N.formatBytes(Math.max(0, freed))));
+        } catch (InterruptedException ex) {
+            stopUI(I18N.get("Interrupted by user"), null);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            stopUI(ex.getMessage(), null);
+        }
+        finally {
+            if (null != store)
+                store.destroy();
+        }
+    }
+
+    protected void stopUI(String error, String msg) {
+        removeCommand(Midlet.CANCEL);
+        setIndicator(null);
+
+        if (null == error) {
+            setType(AlertType.INFO);
+            setTimeout(getDefaultTimeout());
+        }
+        else {
+            msg = error;
+            setType(AlertType.ERROR);
+            setTimeout(FOREVER);
+        }
+        setString(msg);
+    }
+
+    public void commandAction(Command c, Displayable d) {
+        if (c.getCommandType() == Command.CANCEL && thread_.isAlive()) {
+            isCancelled_ = true;
+            try {
+                thread_.join();
+            } catch (InterruptedException ex) {
+            }
+            return ;
+        }
+        Midlet.showStoreListScreen();
+    }
+
+    public boolean onProgress(int done, int total) {
+        indicator_.setValue((int)(100L * done / Math.max(1, total)));
+        return !isCancelled_;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of Lockore application.
+ *
+ * Lockoree is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Lockore distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lockore.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.Displayable;
+import madrat.i18n.I18N;
+import madrat.sys.Metrics;
+
+/**
+ * Operations' counters and timings (see madrat.sys.Metrics)
+ */
+final class DiagnosticsScreen extends LockoreForm {
+    private final Command reset_;
+    private final String[] args_;
+
+    public DiagnosticsScreen(LockoreForm back) {
+        super(I18N.get("Diagnostics"), back, Command.OK, HelpIndexList.SETTINGS);
+
+        reset_ = new Command(I18N.get("Reset"), Command.SCREEN, 1);
+        addCommand(reset_);
+        args_ = new String[3];
+
+        updateUI(null);
+    }
+
+    public void commandAction(Command c, Displayable d) {
+        if (c == reset_) {
+            Metrics.reset();
+            updateUI(null);
+        }
+        else
+            super.commandAction(c, d);
+    }
+
+    protected void updateUI(Object hint) {
+        deleteAll();
+        for (int i = 0; i < Metrics.size(); ++i) {
+            args_[0] = Integer.toString(Metrics.getCount(i));
+            args_[1] = Long.toString(Metrics.getTotal(i));
+            args_[2] = Integer.toString(Metrics.getMax(i));
+            appendInfoline(Metrics.getName(i),
+                    I18N.get("{0} calls, {1}ms (max {2}ms)", args_), Midlet.ICON_NUMBER);
+        }
+    }
+}
@@ -31,7 +31,7 @@ final class FieldSort implements IComparator {
 
     private static final int getOrder(Field f) {
         int order = (f.isProtected()?0x01:0x00);
-        if (Field.BINARY == f.getType())
+        if (Field.BINARY == f.getType() || Field.ATTACHMENT == f.getType())
             order |= 0x2;
         if (Midlet.DATE_FORMAT == f.getFormat())
             order |= 0x4;
@@ -15,6 +15,7 @@
  * If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.InputStream;
 import java.io.OutputStream;
 import javax.microedition.io.ConnectionNotFoundException;
 import javax.microedition.io.Connector;
@@ -25,6 +26,7 @@ import javax.microedition.lcdui.CommandListener;
 import javax.microedition.lcdui.Displayable;
 
 import madrat.i18n.I18N;
+import madrat.storage.AttachmentField;
 import madrat.storage.Field;
 import madrat.storage.Record;
 
@@ -84,6 +86,11 @@ final class FieldViewAlert extends Alert implements CommandListener {
                 }
                 break;
             }
+            case Field.ATTACHMENT: {
+                if (Midlet.isSupportFileApi())
+                    save_ = new Command(I18N.get("Save"), Command.ITEM, 2);
+                break;
+            }
         }
 
         if (null != request_)
@@ -125,9 +132,13 @@ final class FieldViewAlert extends Alert implements CommandListener {
                     throw new IllegalAccessException(I18N.get("No access to {0}", name));
 
                 try {
-                    byte[] data = Midlet.alloc(field_.getBytes(null, 0));
-                    field_.getBytes(data, 0);
-                    os.write(data);
+                    if (Field.ATTACHMENT == field_.getType())
+                        saveAttachment((AttachmentField)field_, os);
+                    else {
+                        byte[] data = Midlet.alloc(field_.getBytes(null, 0));
+                        field_.getBytes(data, 0);
+                        os.write(data);
+                    }
                 }
                 finally {
                     os.close();
@@ -145,4 +156,17 @@ final class FieldViewAlert extends Alert implements CommandListener {
             Midlet.showAlert(e, parent_);
         }
     }
+
+    private static void saveAttachment(AttachmentField f, OutputStream os) throws Exception {
+        InputStream is = Midlet.getStore().openAttachment(f);
+        try {
+            byte[] data = new byte[4096];
+            int n;
+            while ((n = is.read(data, 0, data.length)) > 0)
+                os.write(data, 0, n);
+        }
+        finally {
+            is.close();
+        }
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of Lockore application.
+ *
+ * Lockoree is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Lockore distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lockore.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+
+import madrat.storage.IAttachmentSource;
+
+/**
+ * File's content for an attachment, the file is read when the record is saved
+ */
+final class FileAttachment implements IAttachmentSource {
+    private final String uri_;
+
+    FileAttachment(String uri) {
+        uri_ = uri;
+    }
+
+    public InputStream open() throws IOException {
+        return Connector.openInputStream(uri_);
+    }
+}
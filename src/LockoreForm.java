@@ -287,6 +287,8 @@ class LockoreForm extends Form implements CommandListener, ItemCommandListener,
                     return getLimitedString(f);
                 return I18N.get("Length {0}", I18N.formatBytes(isUnprotected?len:-1));
             }
+            case Field.ATTACHMENT:
+                return I18N.get("Length {0}", I18N.formatBytes(isUnprotected?f.getLong():-1));
             case Field.INTEGER:
                 if (Midlet.DATE_FORMAT == format)
                     return (isUnprotected)?I18N.formatDate(new Date(f.getLong())):I18N.formatDate(null);
@@ -105,6 +105,7 @@ public final class Midlet extends javax.microedition.midlet.MIDlet implements Co
 
     public Midlet() {
         self_ = this;
+        Storage.setCatalog(DB_SETTINGS);
     }
 
     static PasswordQuality getPasswordQuality() {
@@ -557,6 +558,8 @@ public final class Midlet extends javax.microedition.midlet.MIDlet implements Co
         switch (type) {
             case Field.BINARY:
                 return (format == TOTP_FORMAT)?ICON_OTP:ICON_BINARY;
+            case Field.ATTACHMENT:
+                return ICON_BINARY;
             case Field.STRING:
                 switch (format) {
                     case URI_FORMAT:
@@ -23,24 +23,26 @@ import javax.microedition.lcdui.Displayable;
 import javax.microedition.lcdui.Gauge;
 
 import madrat.i18n.I18N;
-import madrat.storage.Record;
+import madrat.storage.IProgress;
+import madrat.storage.Reencryptor;
 import madrat.storage.Storage;
 
 /**
  * Re-encrypt store with others params
  */
-final class MoveStoreAlert extends Alert implements Runnable, CommandListener {
+final class MoveStoreAlert extends Alert implements Runnable, CommandListener, IProgress {
     protected final Gauge indicator_;
     protected final Thread thread_;
     protected Storage from_;
     protected Storage to_;
-    protected boolean break_ = false;
+    protected final Reencryptor copier_;
 
     public MoveStoreAlert(Storage from, Storage to) {
         super(I18N.get("Copying"), I18N.get("Please wait"), null, AlertType.INFO);
 
         from_ = from;
         to_ = to;
+        copier_ = new Reencryptor(from, to, Reencryptor.DEFAULT_QUEUE, this);
         setTimeout(FOREVER);
         indicator_ = new Gauge(null, false, Math.max(1, from.size()), 0);
         setIndicator(indicator_);
@@ -62,15 +64,7 @@ final class MoveStoreAlert extends Alert implements Runnable, CommandListener {
                 if (diff>0)
                     throw new RuntimeException(I18N.get("Not enough space (additionally {0})", I18N.formatBytes(diff)));
 
-                for (int i = 0; i < count; ++i) {
-                    indicator_.setValue(i);
-
-                    Record r = from_.get(i);
-                    to_.insertNew(from_.cloneRecord(r, null));
-
-                    if (break_)
-                        throw new InterruptedException();
-                }
+                copier_.copy();
             }
             to_.save();
             stopUI(null);
@@ -106,7 +100,7 @@ final class MoveStoreAlert extends Alert implements Runnable, CommandListener {
 
     public void commandAction(Command c, Displayable d) {
         if (c.getCommandType() == Command.CANCEL && thread_.isAlive()) {
-            break_ = true;
+            copier_.cancel();
             try {
                 thread_.join();
             } catch (InterruptedException ex) {
@@ -117,6 +111,11 @@ final class MoveStoreAlert extends Alert implements Runnable, CommandListener {
         Midlet.showStoreListScreen();
     }
 
+    public boolean onProgress(int done, int total) {
+        indicator_.setValue(done);
+        return true;
+    }
+
     private void releaseStores(boolean keepTo) {
         if (null == from_ || null == to_)
             return;
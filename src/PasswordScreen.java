@@ -28,6 +28,7 @@ import javax.microedition.lcdui.Spacer;
 import javax.microedition.lcdui.StringItem;
 
 import madrat.i18n.I18N;
+import madrat.storage.IProgress;
 import madrat.storage.Storage;
 import madrat.sys.SecureRandom;
 import madrat.sys.Sha3;
@@ -38,10 +39,12 @@ import madrat.sys.Sha3;
  */
 final class PasswordScreen extends Form implements
         CommandListener, ItemCommandListener, ItemStateListener,
-        TaskNotification {
+        TaskNotification, IProgress {
     protected final TextField field_;
     protected final byte[] seed_;
     protected int index_;
+    protected Storage store_;           // store being unlocked
+    protected StoreViewScreen view_;    // shown since the 1st head
 
     public PasswordScreen() {
         super(I18N.get("Password"));
@@ -130,16 +133,35 @@ final class PasswordScreen extends Form implements
             Midlet.showStoreListScreen();
             return;
         }
+        view_ = null;
+        store_ = Midlet.getStore();
         try {
-            final Storage store = Midlet.getStore();
-            store.unlock(password, (byte[])hash);
-            new StoreViewScreen().show();
+            store_.unlock(password, (byte[])hash, this);
         }
         catch (SignatureException e) {
             onFailure(hash, new SignatureException(I18N.get("Invalid password")));
         }
         catch (Exception e) {
-            onFailure(hash, e);
+            // user has left the store while it is unlocking
+            if (store_ == Midlet.getStore())
+                onFailure(hash, e);
         }
+        finally {
+            store_ = null;
+            view_ = null;
+        }
+    }
+
+    public boolean onProgress(int done, int total) {
+        if (store_ != Midlet.getStore())
+            return false;
+
+        if (null == view_) {
+            view_ = new StoreViewScreen();
+            view_.show();
+        }
+        else
+            view_.updateUI(null);
+        return true;
     }
 }
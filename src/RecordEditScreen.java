@@ -135,7 +135,8 @@ final class RecordEditScreen extends LockoreForm implements TaskNotification {
             item.addCommand(renameField_);
             item.addCommand(delete_);
             item.addCommand(protection_);
-            item.addCommand(changeType_);
+            if (Field.ATTACHMENT != record_.at(i).getType())
+                item.addCommand(changeType_);
             item.addCommand(changeIcon_);
             v.addElement(item);
         }
@@ -161,6 +162,8 @@ final class RecordEditScreen extends LockoreForm implements TaskNotification {
                 editScreen = new ValueScreen(this, I18N.get("Record Name"), field, ValueScreen.NAME);
             else if (i == desc_)
                 editScreen = new ValueScreen(this, null, field, ValueScreen.DESC);
+            else if (Field.ATTACHMENT == field.getType())
+                return; // content is replaced by a new file only
             else if (Field.INTEGER == field.getType() && Midlet.DATE_FORMAT == field.getFormat())
                 editScreen = new DateScreen(this, (IntegerField)field);
             else
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of Lockore application.
+ *
+ * Lockoree is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Lockore distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Lockore.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Vector;
+
+import javax.microedition.lcdui.Item;
+
+/**
+ * Type-ahead filter of items by their labels
+ * A query is matched as a case-insensitive substring by a linear scan of lowercase labels.
+ * The result is a subsequence of the items (their order is kept),
+ * and a growing query checks only the previous result.
+ */
+final class RecordFilter {
+    private final String[] keys_;   // lowercase labels
+    private final Item[] items_;
+
+    private String query_ = "";
+    private int[] result_;          // indexes of matched items (ascending)
+    private int count_;
+
+    /**
+     * @param items - sorted Items
+     */
+    public RecordFilter(Vector items) {
+        final int count = items.size();
+        keys_ = new String[count];
+        items_ = new Item[count];
+        result_ = new int[count];
+        for (int i = 0; i < count; ++i) {
+            final Item item = (Item)items.elementAt(i);
+            final String label = item.getLabel();
+            keys_[i] = (null != label) ? label.toLowerCase() : "";
+            items_[i] = item;
+            result_[i] = i;
+        }
+        count_ = count;
+    }
+
+    /**
+     * Apply query
+     * @param query - any case
+     * @return true if the result is a subsequence of the previous one (only deletions)
+     */
+    public boolean filter(String query) {
+        query = (null != query) ? query.trim().toLowerCase() : "";
+
+        final boolean isNarrowing = query.startsWith(query_);
+        final int[] from = isNarrowing ? result_ : null;
+        final int fromCount = isNarrowing ? count_ : keys_.length;
+
+        final int[] result = isNarrowing ? result_ : new int[keys_.length];
+        int count = 0;
+        for (int j = 0; j < fromCount; ++j) {
+            final int i = (null != from) ? from[j] : j;
+            if (-1 != keys_[i].indexOf(query))
+                result[count++] = i;
+        }
+
+        query_ = query;
+        result_ = result;
+        count_ = count;
+        return isNarrowing;
+    }
+
+    public int size() {
+        return count_;
+    }
+
+    public Item get(int index) {
+        return items_[result_[index]];
+    }
+}
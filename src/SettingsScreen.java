@@ -32,6 +32,7 @@ final class SettingsScreen extends LockoreForm {
     protected final GenericItem theme_;
     protected final GenericItem timeoffset_;
     protected final GenericItem sysinfo_;
+    protected final GenericItem diagnostics_;
 
     public SettingsScreen(LockoreForm back) {
         super(I18N.get("Settings"), back, Command.BACK, HelpIndexList.SETTINGS);
@@ -49,6 +50,9 @@ final class SettingsScreen extends LockoreForm {
         sysinfo_= createLongItem(I18N.get("System info"), null, Midlet.ICON_SETTINGS, choose_, Item.LAYOUT_RIGHT);
         append(sysinfo_);
 
+        diagnostics_= createLongItem(I18N.get("Diagnostics"), null, Midlet.ICON_NUMBER, choose_, Item.LAYOUT_RIGHT);
+        append(diagnostics_);
+
         updateUI(null);
     }
 
@@ -87,6 +91,9 @@ final class SettingsScreen extends LockoreForm {
 
             info.show();
         }
+        else if (diagnostics_ == item) {
+            new DiagnosticsScreen(this).show();
+        }
         else if (timeoffset_ == item) {
             new TimeAdjustmentScreen(this).show();
         }
@@ -19,6 +19,9 @@ import java.util.Vector;
 
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Displayable;
+import javax.microedition.lcdui.Item;
+import javax.microedition.lcdui.ItemStateListener;
+import javax.microedition.lcdui.TextField;
 
 import madrat.sys.QuickSort;
 import madrat.i18n.I18N;
@@ -29,9 +32,11 @@ import madrat.storage.Storage;
 /**
  * Show store's records
  */
-final class StoreViewScreen extends LockoreForm {
+final class StoreViewScreen extends LockoreForm implements ItemStateListener {
 
     protected final Command properties_, stores_, add_, addFile_, open_, delete_, duplicate_;
+    protected final TextField filter_;
+    protected RecordFilter records_;
 
     public StoreViewScreen() {
         super("", null, Command.BACK, HelpIndexList.STORES);
@@ -58,6 +63,9 @@ final class StoreViewScreen extends LockoreForm {
         duplicate_  = new Command(I18N.get("Copy"),     I18N.get("Duplicate"),  Command.ITEM, 2);
         delete_     = new Command(I18N.get("Delete"),   Command.ITEM, 3);
 
+        filter_ = new TextField(I18N.get("Filter"), null, 64, TextField.ANY | TextField.NON_PREDICTIVE);
+        setItemStateListener(this);
+
         updateUI(null);
     }
 
@@ -66,6 +74,7 @@ final class StoreViewScreen extends LockoreForm {
         super.setTitle(store.getName());
 
         deleteAll();
+        records_ = null;
 
         if (store.isLocked()) {
             append(createItem(
@@ -87,7 +96,40 @@ final class StoreViewScreen extends LockoreForm {
             v.addElement(createRecord(r));
         }
         QuickSort.sort(v, this);
-        append(v);
+
+        records_ = new RecordFilter(v);
+        records_.filter(filter_.getString());
+        append(filter_);
+        appendRecords();
+    }
+
+    private void appendRecords() {
+        final int count = records_.size();
+        for (int i = 0; i < count; ++i)
+            append(records_.get(i));
+    }
+
+    public void itemStateChanged(Item item) {
+        if (filter_ != item || null == records_)
+            return;
+
+        if (!records_.filter(filter_.getString())) {
+            while (size() > 1)
+                delete(size() - 1);
+            appendRecords();
+            return;
+        }
+
+        // only deletions: shown items and the result have the same order
+        int k = 0;
+        for (int i = 1; i < size(); ) {
+            if (k < records_.size() && get(i) == records_.get(k)) {
+                ++k;
+                ++i;
+            }
+            else
+                delete(i);
+        }
     }
 
     private GenericItem createRecord(Record record) {
@@ -141,7 +183,7 @@ final class StoreViewScreen extends LockoreForm {
             final Storage store = Midlet.getStore();
             Record nr = store.cloneRecord(record, I18N.get("{0}'s copy", record.getName()));
             store.insertNew(nr);
-            append(createRecord(nr));
+            updateUI(null);
         }
         else if (delete_ == c) {
             ConfirmAlert.showConfirmOkCancel(this, I18N.get("Delete '{0}'?", name), "Yes", 0, record);
@@ -24,12 +24,16 @@ import madrat.i18n.I18N;
 import madrat.gui.GenericItem;
 import madrat.storage.Storage;
 import madrat.storage.StorageException;
+import madrat.storage.StoreInfo;
 
 /**
  * Encrypted containers list screen
  */
 final class StoresListScreen extends LockoreForm {
-    private final Command open_, details_, delete_, create_, settings_;
+    private static final int DELETE = 0;
+    private static final int COMPACT = 1;
+
+    private final Command open_, details_, compact_, delete_, create_, settings_;
 
     public StoresListScreen() {
         super(I18N.get("Stores"), null, Command.EXIT, HelpIndexList.GET_STARTED);
@@ -40,7 +44,8 @@ final class StoresListScreen extends LockoreForm {
 
         open_ = new Command(I18N.get("Open"), Command.ITEM, 1);
         details_ = new Command(I18N.get("Details"), Command.ITEM, 2);
-        delete_ = new Command(I18N.get("Delete"),  Command.ITEM, 3);
+        compact_ = new Command(I18N.get("Compact"), Command.ITEM, 3);
+        delete_ = new Command(I18N.get("Delete"),  Command.ITEM, 4);
 
         setCommandListener(this);
         updateUI(null);
@@ -74,7 +79,12 @@ final class StoresListScreen extends LockoreForm {
         final String name = i.getLabel();
 
         if (delete_ == c) {
-            ConfirmAlert.showConfirmOkCancel(this, I18N.get("Delete store '{0}' and all data on it?", name), "Delete", 0, rmsStore);
+            ConfirmAlert.showConfirmOkCancel(this, I18N.get("Delete store '{0}' and all data on it?", name), "Delete", DELETE, rmsStore);
+            return;
+        }
+
+        if (compact_ == c) {
+            ConfirmAlert.showConfirmOkCancel(this, I18N.get("Compact store '{0}'?", name), "Compact", COMPACT, rmsStore);
             return;
         }
 
@@ -105,6 +115,10 @@ final class StoresListScreen extends LockoreForm {
                 info.appendInfoline("Used space",I18N.formatBytes(store.getStorageSize()), Midlet.ICON_BINARY);
                 info.appendInfoline("Free space", I18N.formatBytes(store.getStorageFree()), Midlet.ICON_STORE);
 
+                final int size = store.getStorageSize();
+                final int unused = store.getUnusedSize();
+                info.appendInfoline("Unused space", I18N.formatBytes(unused) + " (" + Integer.toString((int)(100L*unused/Math.max(1, size))) + "%)", Midlet.ICON_BINARY);
+
                 info.show();
             } else if (open_ == c) {
                 Midlet.setStore(store);
@@ -139,13 +153,12 @@ final class StoresListScreen extends LockoreForm {
             GenericItem item = null;
 
             try {
-                Storage store = new Storage(storeName);
+                final StoreInfo store = Storage.getStoreInfo(storeName);
 
                 userName = store.getName();
                 desc = store.getDescription();
                 final int icon = store.getIcon();
                 final String pbkdf2Hash = store.getValue(Midlet.F_PBKDF2_HASH, null);
-                store.destroy();
 
                 if (!Pbkdf2CountingScreen.HASH_NAME.equals(pbkdf2Hash))
                     throw new IllegalArgumentException(I18N.get("PBKDF2 '{0}' not supported", pbkdf2Hash));
@@ -169,6 +182,13 @@ final class StoresListScreen extends LockoreForm {
             v.addElement(item);
         }
 
+        // getStoreInfo finishes an interrupted compaction, its source store is wiped
+        final String[] rest = javax.microedition.rms.RecordStore.listRecordStores();
+        for (int i = v.size() - 1; i >= 0; --i) {
+            if (!contains(rest, (String)((GenericItem)v.elementAt(i)).getUserInfo()))
+                v.removeElementAt(i);
+        }
+
         if (0 == v.size()) {
             removeCommand(create_);
             append(createNewItem("Create store", "No stores available", create_));
@@ -180,11 +200,20 @@ final class StoresListScreen extends LockoreForm {
         append(v);
     }
 
+    private static boolean contains(String[] list, String name) {
+        for (int i = 0; null != list && i < list.length; ++i) {
+            if (list[i].equals(name))
+                return true;
+        }
+        return false;
+    }
+
     private GenericItem createStore(String name, String desc, int icon, Command def, boolean isValid, String storeName) {
         GenericItem item = createItem(name, desc, icon, def);
         if (isValid) {
             item.addCommand(open_);
             item.addCommand(details_);
+            item.addCommand(compact_);
             item.addCommand(delete_);
         }
         item.setUserInfo(storeName);
@@ -192,6 +221,11 @@ final class StoresListScreen extends LockoreForm {
     }
 
     public void onConfirmed(int action, Object userinfo, boolean isAgreed) {
+        if (COMPACT == action) {
+            Midlet.showAlert(new CompactStoreAlert((String)userinfo), this);
+            return;
+        }
+
         Storage.wipeStore((String)userinfo);
         show(null);
     }
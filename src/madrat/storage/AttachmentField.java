@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+
+/**
+ * Large binary data, it is kept in encrypted chunk records (see Storage.openAttachment)
+ *  |VARINT(LENGTH)|VARINT(COUNT)|chunk RID0|...|chunk RIDN-1|
+ * New content is set by a source, it is streamed into chunks when the record is saved.
+ */
+public class AttachmentField extends Field {
+    private int length_;
+    private int[] chunks_;      // null - content is not written yet
+    private IAttachmentSource source_;
+
+    public int getType() {
+        return ATTACHMENT;
+    }
+
+    AttachmentField(boolean isProtected, String name, int icon, int format, java.io.DataInputStream is)
+            throws IOException {
+        super(isProtected, name, icon, format);
+
+        length_ = Stream.loadVarInt(is);
+        final int count = Stream.loadVarInt(is);
+        if (length_ < 0 || count < 0)
+            throw new UnsupportedException("Attachment", Integer.toString(count));
+
+        chunks_ = new int[count];
+        for (int i = 0; i < count; ++i)
+            chunks_[i] = Stream.loadVarInt(is);
+
+        clearModify();
+    }
+
+    public AttachmentField(boolean isProtected, String name, int icon, int format, IAttachmentSource source) {
+        super(isProtected, name, icon, format);
+        setSource(source);
+    }
+
+    public void save(java.io.DataOutputStream os) throws IOException {
+        if (null == chunks_)
+            throw new IllegalStateException("Attachment is not written");
+
+        super.save(os);
+
+        Stream.saveVarInt(os, length_);
+        Stream.saveVarInt(os, chunks_.length);
+        for (int i = 0; i < chunks_.length; ++i)
+            Stream.saveVarInt(os, chunks_[i]);
+        clearModify();
+    }
+
+    /**
+     * @return content length in bytes (0 if it is not written yet)
+     */
+    public int getLength() {
+        return length_;
+    }
+
+    /**
+     * @return true if content is not written into chunks yet
+     */
+    public boolean isPending() {
+        return null == chunks_;
+    }
+
+    /**
+     * Replace content, it is written by the next record's saving
+     * @param source
+     */
+    public void setSource(IAttachmentSource source) {
+        if (null == source)
+            throw new NullPointerException();
+        source_ = source;
+        chunks_ = null;
+        length_ = 0;
+        modify();
+    }
+
+    IAttachmentSource getSource() {
+        return source_;
+    }
+
+    int[] getChunks() {
+        return chunks_;
+    }
+
+    /**
+     * Content is written
+     */
+    void assign(int[] chunks, int length) {
+        chunks_ = chunks;
+        length_ = length;
+        modify();
+    }
+
+    /**
+     * Written chunks are rolled back, the source is written again
+     */
+    void reset() {
+        if (null == source_)
+            return;
+        chunks_ = null;
+        length_ = 0;
+    }
+
+    /**
+     * References to chunks of the same attachment
+     * @param f
+     * @return
+     */
+    boolean isSameContent(AttachmentField f) {
+        return null != chunks_ && null != f.chunks_
+                && chunks_.length > 0 && f.chunks_.length > 0
+                && chunks_[0] == f.chunks_[0];
+    }
+
+    public long getLong() {
+        return length_;
+    }
+
+    public String getString() throws RuntimeException {
+        throw new IllegalStateException("Attachment");
+    }
+
+    public int getBytes(byte[] d, int ofs) {
+        throw new IllegalStateException("Attachment");
+    }
+
+    public void set(String val) throws RuntimeException {
+        throw new IllegalStateException("Attachment");
+    }
+}
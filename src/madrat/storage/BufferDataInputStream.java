@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Data input of memory buffer, Stream's and Field's readers use its cursor (buffer) directly
+ */
+final class BufferDataInputStream extends DataInputStream {
+    final BufferInputStream buffer;
+    boolean isUtf8 = false;     // strings are prefixed by UTF-8 length (Field.LAYOUT_UTF8)
+
+    BufferDataInputStream(BufferInputStream bs) {
+        super(bs);
+        buffer = bs;
+    }
+
+    BufferDataInputStream(byte[] data, int offset, int length) {
+        this(new BufferInputStream(data, offset, length));
+    }
+
+    // DataInputStream's readers are final, FilterInputStream's are overridden
+    // to skip the volatile stream and synchronized mark/reset
+
+    public int read() throws IOException {
+        return buffer.read();
+    }
+
+    public long skip(long n) throws IOException {
+        return buffer.skip(n);
+    }
+
+    public int available() throws IOException {
+        return buffer.available();
+    }
+
+    public void mark(int readlimit) {
+        buffer.mark(readlimit);
+    }
+
+    public void reset() throws IOException {
+        buffer.reset();
+    }
+}
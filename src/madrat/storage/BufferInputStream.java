@@ -17,10 +17,13 @@
 
 package madrat.storage;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 /**
  * Memory Input Buffer
+ * It is the cursor of records' parsing: its readers (readUnsigned, readVarInt, readLong,
+ * readUtf8) work on the array directly, they are used through BufferDataInputStream.
  */
 final class BufferInputStream extends java.io.InputStream {
 
@@ -29,6 +32,7 @@ final class BufferInputStream extends java.io.InputStream {
     private int index_;
     private int mark_;
     private int length_;
+    private char[] chars_;  // decoding scratch
 
     public BufferInputStream(byte[] buffer) {
         this(buffer, 0, buffer.length);
@@ -108,6 +112,122 @@ final class BufferInputStream extends java.io.InputStream {
         length_ = length;
     }
 
+    /**
+     * Read byte (DataInputStream.readUnsignedByte without stream's layers)
+     * @return 0..255
+     * @throws EOFException
+     */
+    int readUnsigned() throws EOFException {
+        if (index_ >= length_)
+            throw new EOFException();
+        return buffer_[index_++] & 0xFF;
+    }
+
+    /**
+     * Read VARINT (see Stream.loadVarInt)
+     * @return value
+     * @throws EOFException
+     */
+    int readVarInt() throws EOFException {
+        final byte[] b = buffer_;
+        int i = index_;
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (i >= length_)
+                throw new EOFException();
+            final int c = b[i++];
+            v |= (c & 0x7F) << shift;
+            if (c >= 0)
+                break;
+        }
+        index_ = i;
+
+        if (0 == (v & 0x1))
+            return (v >>> 1);
+        return ~(v >>> 1);
+    }
+
+    /**
+     * Read big-endian long (DataInputStream.readLong)
+     * @return value
+     * @throws EOFException
+     */
+    long readLong() throws EOFException {
+        final int i = index_;
+        if (length_ - i < 8)
+            throw new EOFException();
+
+        final byte[] b = buffer_;
+        final int hi = (b[i] << 24) | ((b[i+1] & 0xFF) << 16) | ((b[i+2] & 0xFF) << 8) | (b[i+3] & 0xFF);
+        final int lo = (b[i+4] << 24) | ((b[i+5] & 0xFF) << 16) | ((b[i+6] & 0xFF) << 8) | (b[i+7] & 0xFF);
+        index_ = i + 8;
+        return ((long)hi << 32) | (lo & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decode UTF-8 string from the buffer
+     * @param count - length in chars (VARSTRING) or -1
+     * @param bytes - length in bytes (or -1 for count of chars)
+     * @return string
+     * @throws EOFException
+     */
+    String readUtf8(int count, int bytes) throws EOFException {
+        final int end = (bytes < 0) ? length_ : index_ + bytes;
+        if (end > length_ || end < index_)
+            throw new EOFException();
+        if (count < 0)
+            count = bytes;
+
+        if (null == chars_ || chars_.length <= count)
+            chars_ = new char[Math.max(count + 1, 32)];   // +1 for surrogates' pair at the end
+
+        final byte[] b = buffer_;
+        final char[] c = chars_;
+        int i = index_;
+        int n = 0;
+        while (n < count && i < end) {
+            int v = b[i++];
+            if (v >= 0) {
+                c[n++] = (char)v;
+                continue;
+            }
+
+            v &= 0xFF;
+            int need;
+            if (v >= 0xF8 || v < 0xC0) {
+                c[n++] = Stream.REPLACEMENT;
+                continue;
+            } else if (v >= 0xF0) {
+                need = 3;
+                v &= 0x07;
+            } else if (v >= 0xE0) {
+                need = 2;
+                v &= 0x0F;
+            } else {
+                need = 1;
+                v &= 0x1F;
+            }
+
+            for (; need > 0 && i < end && 0x80 == (b[i] & 0xC0); --need)
+                v = (v << 6) | (b[i++] & 0x3F);
+
+            if (need > 0)
+                c[n++] = Stream.REPLACEMENT;
+            else if (v >= 0x10000) {
+                v -= 0x10000;
+                c[n++] = (char)(0xD800 | (v >> 10));
+                c[n++] = (char)(0xDC00 | (v & 0x3FF));
+            } else
+                c[n++] = (char)v;
+        }
+
+        if (bytes < 0 && n < count)
+            throw new EOFException();
+
+        index_ = (bytes < 0) ? i : end;
+        return new String(c, 0, n);
+    }
+
     public byte[] buffer() {
         return buffer_;
     }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+/**
+ * Pool of wiped byte buffers by size classes (power of 2)
+ */
+final class BufferPool {
+    private static final int MIN_CLASS = 10;    // 1K
+    private static final int MAX_CLASS = 18;    // 256K
+    private static final int SLOTS = 2;         // buffers per class
+
+    private final byte[][] free_ = new byte[(MAX_CLASS - MIN_CLASS + 1) * SLOTS][];
+    private final int maxBytes_;
+    private int bytes_;
+
+    private int hits_;
+    private int misses_;
+
+    /**
+     * @param maxBytes - limit for kept (free) buffers
+     */
+    BufferPool(int maxBytes) {
+        maxBytes_ = maxBytes;
+    }
+
+    private static int sizeClass(int length) {
+        int c = MIN_CLASS;
+        while (c <= MAX_CLASS && (1 << c) < length)
+            ++c;
+        return c;
+    }
+
+    /**
+     * Get zeroed buffer
+     * @param length - min length
+     * @return buffer, its length may be more then requested
+     * @throws OutOfMemoryError
+     */
+    synchronized byte[] acquire(int length) throws OutOfMemoryError {
+        final int c = sizeClass(length);
+        if (c > MAX_CLASS) {
+            ++misses_;
+            return allocate(length);
+        }
+
+        final int base = (c - MIN_CLASS) * SLOTS;
+        for (int i = base + SLOTS - 1; i >= base; --i) {
+            final byte[] b = free_[i];
+            if (null != b) {
+                free_[i] = null;
+                bytes_ -= b.length;
+                ++hits_;
+                return b;
+            }
+        }
+
+        ++misses_;
+        return allocate(1 << c);
+    }
+
+    /**
+     * Wipe and return buffer into pool
+     * @param b - buffer (may be null)
+     */
+    synchronized void release(byte[] b) {
+        if (null == b)
+            return;
+
+        wipe(b, 0, b.length);
+
+        final int c = sizeClass(b.length);
+        if (c > MAX_CLASS || (1 << c) != b.length || bytes_ + b.length > maxBytes_)
+            return;
+
+        final int base = (c - MIN_CLASS) * SLOTS;
+        for (int i = base; i < base + SLOTS; ++i) {
+            if (null == free_[i]) {
+                free_[i] = b;
+                bytes_ += b.length;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop all kept buffers
+     */
+    synchronized void clear() {
+        for (int i = 0; i < free_.length; ++i)
+            free_[i] = null;
+        bytes_ = 0;
+    }
+
+    synchronized int getHits() {
+        return hits_;
+    }
+
+    synchronized int getMisses() {
+        return misses_;
+    }
+
+    private byte[] allocate(int length) {
+        try {
+            return new byte[length];
+        } catch (OutOfMemoryError e) {
+            clear();
+            return Storage.alloc(length);
+        }
+    }
+
+    static void wipe(byte[] b, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; --i)
+            b[i] = 0;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+/**
+ * Catalog of stores' public (meta) records, it is kept as a plain record
+ * in the catalog's store (see Storage.setCatalog), its RID is in the store's meta,
+ * so stores' list may be shown without opening every store.
+ * Record: MAGIC(2) + VERSION(1) + VARINT(COUNT) + COUNT * (VARSTRING(STORE) + VARINT(LEN) + META)
+ * The catalog is a cache: missing entry means 'open the store', a write failure drops the whole record.
+ * An entry is removed before its store's meta is changed (see modify) and added after,
+ * so an interrupted change leaves the store uncataloged, not stale.
+ */
+final class Catalog {
+    private static final int MAGIC = 0x4C43;   // 'LC'
+    private static final int VERSION = 2;
+
+    private static String storeName_;       // null - no catalog
+    private static Hashtable entries_;      // store's name -> meta record, null - not loaded
+    private static int rid_ = Storage.INVALID_RID;
+
+    private Catalog() {
+    }
+
+    /**
+     * Use catalog kept in the store (it is not cataloged itself)
+     * @param storeName - null disables catalog
+     */
+    static synchronized void setStore(String storeName) {
+        storeName_ = storeName;
+        invalidate();
+    }
+
+    /**
+     * Drop loaded catalog, it will be reloaded by the next access
+     */
+    static synchronized void invalidate() {
+        entries_ = null;
+        rid_ = Storage.INVALID_RID;
+    }
+
+    /**
+     * @param backend
+     * @param storeName
+     * @return store's meta record or null if it isn't cataloged
+     */
+    static synchronized byte[] get(IBackend backend, String storeName) {
+        if (!load(backend))
+            return null;
+        return (byte[])entries_.get(storeName);
+    }
+
+    /**
+     * Drop store's entry before its meta is written, if the meta is changed
+     * @param backend
+     * @param storeName
+     * @param meta - new meta record
+     */
+    static synchronized void modify(IBackend backend, String storeName, byte[] meta) {
+        if (!load(backend) || storeName.equals(storeName_))
+            return;
+
+        final byte[] old = (byte[])entries_.get(storeName);
+        if (null != old && !isEqual(meta, old)) {
+            entries_.remove(storeName);
+            save(backend);
+        }
+    }
+
+    /**
+     * @param backend
+     * @param storeName
+     * @return catalog's RID if the store keeps catalog or INVALID_RID
+     */
+    static synchronized int getRid(IBackend backend, String storeName) {
+        if (!storeName.equals(storeName_) || !load(backend))
+            return Storage.INVALID_RID;
+        return rid_;
+    }
+
+    static synchronized void put(IBackend backend, String storeName, byte[] meta) {
+        if (null == meta || !load(backend) || storeName.equals(storeName_))
+            return;
+
+        if (isEqual(meta, (byte[])entries_.get(storeName)))
+            return;
+
+        entries_.put(storeName, meta);
+        save(backend);
+    }
+
+    static synchronized void remove(IBackend backend, String storeName) {
+        if (null == storeName_)
+            return;
+
+        if (storeName_.equals(storeName)) {
+            invalidate();   // catalog is wiped with its store
+            return;
+        }
+
+        if (load(backend) && null != entries_.remove(storeName))
+            save(backend);
+    }
+
+    private static boolean isEqual(byte[] a, byte[] b) {
+        if (null == a || null == b || a.length != b.length)
+            return false;
+        for (int i = a.length - 1; i >= 0; --i) {
+            if (a[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Load catalog if it isn't loaded
+     * @return false if there is no catalog
+     */
+    private static boolean load(IBackend backend) {
+        if (null == storeName_)
+            return false;
+        if (null != entries_)
+            return true;
+
+        entries_ = new Hashtable();
+        rid_ = Storage.INVALID_RID;
+
+        IRecordStore store = null;
+        try {
+            store = backend.openRecordStore(storeName_, false);
+            final int rid = (int)loadMeta(store).get(Storage.F_CATALOG, Storage.INVALID_RID);
+            if (Storage.INVALID_RID != rid && parse(store.getRecord(rid)))
+                rid_ = rid;
+            else
+                entries_.clear();
+        } catch (RecordStoreNotFoundException e) {
+        } catch (Exception e) {
+            entries_.clear();
+        } finally {
+            close(store);
+        }
+        return true;
+    }
+
+    private static boolean parse(byte[] data) {
+        if (null == data || data.length < 3)
+            return false;
+
+        final DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (MAGIC != is.readUnsignedShort() || VERSION != is.readUnsignedByte())
+                return false;
+
+            for (int count = Stream.loadVarInt(is); count > 0; --count) {
+                final String name = Stream.loadVarString(is);
+                final byte[] meta = new byte[Stream.loadVarInt(is)];
+                is.readFully(meta);
+                entries_.put(name, meta);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void save(IBackend backend) {
+        IRecordStore store = null;
+        try {
+            final ByteArrayOutputStream bs = new ByteArrayOutputStream();
+            final DataOutputStream os = new DataOutputStream(bs);
+            os.writeShort(MAGIC);
+            os.writeByte(VERSION);
+            Stream.saveVarInt(os, entries_.size());
+            for (Enumeration e = entries_.keys(); e.hasMoreElements();) {
+                final String name = (String)e.nextElement();
+                final byte[] meta = (byte[])entries_.get(name);
+                Stream.saveVarString(os, name);
+                Stream.saveVarInt(os, meta.length);
+                os.write(meta);
+            }
+            final byte[] data = bs.toByteArray();
+
+            // catalog's store is created by the application
+            store = backend.openRecordStore(storeName_, false);
+            if (Storage.INVALID_RID != rid_) {
+                try {
+                    store.setRecord(rid_, data, 0, data.length);
+                    return;
+                } catch (InvalidRecordIDException e) {
+                }
+            }
+            rid_ = store.addRecord(data, 0, data.length);
+
+            final Record meta = loadMeta(store);
+            meta.set(Storage.F_CATALOG, rid_);
+            final byte[] mb = Storage.saveMeta(meta);
+            store.setRecord(Storage.STORE_RID, mb, 0, mb.length);
+        } catch (RecordStoreNotFoundException e) {
+            // kept in memory till the store is created
+        } catch (Exception e) {
+            drop(store);
+        } finally {
+            close(store);
+        }
+    }
+
+    private static Record loadMeta(IRecordStore store) throws RecordStoreException, IOException {
+        return new Record(Storage.STORE_RID, false, new DataInputStream(new ByteArrayInputStream(store.getRecord(Storage.STORE_RID))));
+    }
+
+    /**
+     * Delete the stale record, the stores are opened till the catalog is rebuilt
+     */
+    private static void drop(IRecordStore store) {
+        try {
+            if (null != store && Storage.INVALID_RID != rid_)
+                store.deleteRecord(rid_);
+        } catch (RecordStoreException e) {
+        }
+        entries_.clear();
+        rid_ = Storage.INVALID_RID;
+    }
+
+    private static void close(IRecordStore store) {
+        try {
+            if (null != store)
+                store.closeRecordStore();
+        } catch (RecordStoreException e) {
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Reader of attachment's chunk records, only one chunk is kept in memory
+ * It has own cipher, so it may be read by any thread.
+ */
+final class ChunkInputStream extends InputStream {
+    private final Storage storage_;
+    private final int[] chunks_;
+    private final int length_;
+    private Cipher cipher_;
+    private CipherBuffer cb_;
+    private int index_;     // next chunk
+    private int pos_;       // position in decrypted chunk
+    private int end_;
+
+    ChunkInputStream(Storage storage, int[] chunks, int length) {
+        storage_ = storage;
+        chunks_ = chunks;
+        length_ = length;
+    }
+
+    public int read() throws IOException {
+        if (pos_ == end_ && !nextChunk())
+            return -1;
+        return cb_.buffer[pos_++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (0 == len)
+            return 0;
+        if (pos_ == end_ && !nextChunk())
+            return -1;
+
+        final int n = Math.min(len, end_ - pos_);
+        System.arraycopy(cb_.buffer, pos_, b, off, n);
+        pos_ += n;
+        return n;
+    }
+
+    public int available() throws IOException {
+        return end_ - pos_;
+    }
+
+    private boolean nextChunk() throws IOException {
+        final int offset = index_ * Storage.CHUNK_DATA;
+        if (index_ == chunks_.length || offset >= length_)
+            return false;
+
+        try {
+            if (null == cb_) {
+                cipher_ = Storage.newCipher();
+                cb_ = CipherBuffer.acquire(storage_.getPool(), Storage.CHUNK_SIZE);
+            }
+
+            final int dlen = storage_.readChunk(cipher_, chunks_[index_], cb_);
+            final int length = Math.min(Storage.CHUNK_DATA, length_ - offset);
+            if (dlen < Storage.CHUNK_HEADER + length)
+                throw new IOException("Chunk " + Integer.toString(chunks_[index_]));
+
+            ++index_;
+            pos_ = Storage.CHUNK_HEADER;
+            end_ = pos_ + length;
+            return true;
+        }
+        catch (RecordStoreException e) {
+            throw new IOException(e.toString());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * Wipe and release buffer
+     */
+    public void close() throws IOException {
+        if (null != cb_) {
+            cb_.release(storage_.getPool());
+            cb_ = null;
+        }
+        pos_ = end_ = 0;
+        index_ = chunks_.length;
+    }
+}
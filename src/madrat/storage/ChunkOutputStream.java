@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Writer of attachment's chunk records, only one chunk is kept in memory
+ * Chunks are added into store while data is written, the last one by close.
+ */
+final class ChunkOutputStream extends OutputStream {
+    private final Storage storage_;
+    private CipherBuffer cb_;
+    private int pos_ = Storage.CHUNK_HEADER;  // data position in chunk
+    private int length_;
+    private int[] chunks_ = new int[4];
+    private int count_;
+
+    ChunkOutputStream(Storage storage) {
+        storage_ = storage;
+        cb_ = CipherBuffer.acquire(storage.getPool(), Storage.CHUNK_SIZE);
+    }
+
+    public void write(int b) throws IOException {
+        if (Storage.CHUNK_SIZE == pos_)
+            flushChunk();
+        cb_.buffer[cb_.offset + pos_++] = (byte)b;
+        ++length_;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (Storage.CHUNK_SIZE == pos_)
+                flushChunk();
+            final int n = Math.min(len, Storage.CHUNK_SIZE - pos_);
+            System.arraycopy(b, off, cb_.buffer, cb_.offset + pos_, n);
+            pos_ += n;
+            length_ += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read the whole stream directly into chunks
+     * @param is
+     * @throws IOException
+     */
+    void transfer(InputStream is) throws IOException {
+        while (true) {
+            if (Storage.CHUNK_SIZE == pos_)
+                flushChunk();
+            final int n = is.read(cb_.buffer, cb_.offset + pos_, Storage.CHUNK_SIZE - pos_);
+            if (n < 0)
+                return;
+            pos_ += n;
+            length_ += n;
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        try {
+            final int rid = storage_.writeChunk(cb_, pos_);
+            if (count_ == chunks_.length) {
+                final int[] chunks = new int[count_ << 1];
+                System.arraycopy(chunks_, 0, chunks, 0, count_);
+                chunks_ = chunks;
+            }
+            chunks_[count_++] = rid;
+            pos_ = Storage.CHUNK_HEADER;
+        }
+        catch (RecordStoreException e) {
+            throw new IOException(e.toString());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * Write the last chunk and release buffer
+     */
+    public void close() throws IOException {
+        if (null == cb_)
+            return;
+        try {
+            if (pos_ > Storage.CHUNK_HEADER)
+                flushChunk();
+        }
+        finally {
+            release();
+        }
+    }
+
+    /**
+     * Wipe buffer w/o writing (on error)
+     */
+    void release() {
+        if (null != cb_) {
+            cb_.release(storage_.getPool());
+            cb_ = null;
+        }
+    }
+
+    int getLength() {
+        return length_;
+    }
+
+    int[] getChunks() {
+        final int[] chunks = new int[count_];
+        System.arraycopy(chunks_, 0, chunks, 0, count_);
+        return chunks;
+    }
+}
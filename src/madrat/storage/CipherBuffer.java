@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import madrat.sys.Cipher;
+
+/**
+ * Buffer for in-place en(de)cryption (see madrat.sys.Cipher)
+ * Data is placed at offset, result is at the buffer's beginning.
+ * If there is no memory for reserve, the small temporary buffer is used.
+ */
+final class CipherBuffer {
+    final byte[] buffer;
+    final int offset;
+    final byte[] temp;
+
+    CipherBuffer(byte[] b, int o, byte[] t) {
+        buffer = b;
+        offset = o;
+        temp = t;
+    }
+
+    /**
+     * Get buffer from pool
+     * @param pool
+     * @param length - max data length
+     * @return
+     */
+    static CipherBuffer acquire(BufferPool pool, int length) {
+        try {
+            return new CipherBuffer(pool.acquire(length + Cipher.CIPER_BLOCK_RESERVE), Cipher.CIPER_BLOCK_RESERVE, null);
+        } catch (OutOfMemoryError e) {
+            final byte[] buffer = pool.acquire(length);
+            return new CipherBuffer(buffer, 0, pool.acquire(Cipher.CIPER_BLOCK_RESERVE + Cipher.CIPER_BLOCK));
+        }
+    }
+
+    /**
+     * Wipe and return buffers into pool
+     * @param pool
+     */
+    void release(BufferPool pool) {
+        pool.release(buffer);
+        pool.release(temp);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Directory - list of record heads, stored as a single record
+ *  |count|rid0|size0|META0|...|ridN-1|sizeN-1|METAN-1|chunks|
+ * size is a RMS record size, it is used for detecting stale entries
+ * chunks (number of attachments' chunk records) is written and read by Storage
+ */
+final class Directory {
+    private Directory() {
+    }
+
+    static void save(DataOutputStream os, Vector heads, int[] sizes) throws IOException {
+        final int count = heads.size();
+        Stream.saveVarInt(os, count);
+        for (int i = 0; i < count; ++i) {
+            final Record r = (Record)heads.elementAt(i);
+            Stream.saveVarInt(os, r.getRid());
+            Stream.saveVarInt(os, sizes[i]);
+            r.saveHead(os);
+        }
+    }
+
+    /**
+     * Load heads and check them with RMS records
+     * @param is
+     * @param store
+     * @return heads or null if directory is stale
+     * @throws IOException
+     */
+    static Vector load(DataInputStream is, IRecordStore store) throws IOException {
+        final int count = Stream.loadVarInt(is);
+        if (count < 0)
+            throw new UnsupportedException("Directory", Integer.toString(count));
+
+        final Vector heads = new Vector(count);
+        for (int i = 0; i < count; ++i) {
+            final int rid = Stream.loadVarInt(is);
+            final int size = Stream.loadVarInt(is);
+
+            Field f;
+            do {
+                f = Field.load(is);
+            } while (null == f);
+
+            if (Field.META != f.getType())
+                throw new UnsupportedException("Directory", Integer.toString(f.getType()));
+
+            try {
+                if (size != store.getRecordSize(rid))
+                    return null;
+            }
+            catch (RecordStoreException e) {
+                return null;
+            }
+            heads.addElement(new Record(rid, (StringField)f));
+        }
+        return heads;
+    }
+}
@@ -35,11 +35,21 @@ public abstract class Field {
 
     protected static final int PAD_1    = 0x81;// 'PAD' + BYTE(LEN) + RANDOM
 
+    // Record's layout prefix, it is not a field type
+    static final int LAYOUT_2 = 0x40; // 'LAYOUT' + NONCE + VARINT(HEAD LEN) + META + fields
+    static final int LAYOUT_MASK = 0xF0; // layout 2 flags are in the low nibble
+    static final int LAYOUT_LZ = 0x01;   // fields are VARINT(LEN) + VARINT(LZ LEN) + LZ(fields)
+    static final int LAYOUT_NAMES = 0x02; // fields' names are IDs of store's dictionary (see NameDictionary)
+    static final int LAYOUT_FRAMED = 0x04; // fields are VARINT(COUNT) + COUNT * (VARINT(LEN) + field or pad)
+    static final int LAYOUT_UTF8 = 0x08;   // strings are VARINT(UTF-8 LEN) + UTF-8 (instead of chars' length)
+    static final int LAYOUT_CHUNK = 0x50; // 'CHUNK' + NONCE + attachment's data, it is not a record
+
     public static final int META    = 0x01; // 'META' Record ID
     public static final int STRING  = 0x02; // UTF-8
     public static final int INTEGER = 0x03; // Signed long (8 bytes)
     public static final int BINARY  = 0x04; // Binary object
     public static final int DECIMAL = 0x05; // double (8bytes), IEE-754, not implemented
+    public static final int ATTACHMENT = 0x06; // Large binary object in chunk records
 
     public static final int DEFAULT_ICON   = 0;
     public static final int DEFAULT_FORMAT = 0;
@@ -49,6 +59,7 @@ public abstract class Field {
     private int       icon_;
     private int       format_;
     private boolean   isModified_;
+    private Record    owner_;       // record of the field, its names' index is dropped by renaming
 
     public abstract int getType();
 
@@ -71,9 +82,15 @@ public abstract class Field {
         if (name_.equals(n))
             return;
         name_ = (null !=n)?n:"";
+        if (null != owner_)
+            owner_.dropIndex();
         modify();
     }
 
+    final void setOwner(Record owner) {
+        owner_ = owner;
+    }
+
     public final int getIcon() {
         return icon_;
     }
@@ -133,7 +150,7 @@ public abstract class Field {
     }
 
     public static void skipPad(java.io.DataInputStream is) throws IOException {
-        final int length = is.readUnsignedByte();
+        final int length = Stream.loadUnsignedByte(is);
         if (length == -1)
             throw new EOFException("No enouth data for skip");
 
@@ -171,13 +188,27 @@ public abstract class Field {
 
     protected static final void saveHeader(java.io.DataOutputStream os, byte t, String n, int i, int f) throws IOException {
         os.writeByte(t);
-        Stream.saveVarString(os, n);
+        if (META != t && os instanceof FieldsOutputStream && null != ((FieldsOutputStream)os).names)
+            ((FieldsOutputStream)os).names.saveName(os, n);
+        else
+            Stream.saveString(os, n);
         Stream.saveVarInt(os, i);
         Stream.saveVarInt(os, f);
     }
 
     public static final Field load(java.io.DataInputStream is) throws IOException {
-        final int typeByte = is.readUnsignedByte();
+        return load(is, null);
+    }
+
+    /**
+     * Load field
+     * @param is
+     * @param names - dictionary of names (layout 2 with LAYOUT_NAMES) or null
+     * @return field or null for padding
+     * @throws IOException
+     */
+    static final Field load(java.io.DataInputStream is, NameDictionary names) throws IOException {
+        final int typeByte = Stream.loadUnsignedByte(is);
 
         if (RESERVED == typeByte)
             throw new UnsupportedException("Field-type", "Reserved");
@@ -190,7 +221,7 @@ public abstract class Field {
             return null;
         }
 
-        final String name = Stream.loadVarString(is);
+        final String name = (null != names && META != typeByte) ? names.loadName(is) : Stream.loadString(is);
         final int icon = Stream.loadVarInt(is);
         final int format = Stream.loadVarInt(is);
 
@@ -209,12 +240,36 @@ public abstract class Field {
                 return new IntegerField(isProtected, name, icon, format, is);
             case BINARY:
                 return new BinaryField(isProtected, name, icon, format, is);
+            case ATTACHMENT:
+                return new AttachmentField(isProtected, name, icon, format, is);
             case DECIMAL:
             default:
                 throw new UnsupportedException("Field-type", Integer.toString(type));
         }
     }
 
+    /**
+     * Check field's name w/o loading the field
+     * @param is - at field's start
+     * @param name
+     * @param id - name's ID in dictionary, 0 - not in dictionary
+     * @param names - dictionary of names or null
+     * @return false for other names and pads
+     * @throws IOException
+     */
+    static boolean isNamed(java.io.DataInputStream is, String name, int id, NameDictionary names) throws IOException {
+        final int typeByte = Stream.loadUnsignedByte(is);
+        if (NONE == typeByte || PAD_1 == typeByte || META == typeByte || RESERVED == typeByte)
+            return false;
+
+        if (null != names) {
+            final int v = Stream.loadVarInt(is);
+            if (0 != v)
+                return v == id;
+        }
+        return name.equals(Stream.loadString(is));
+    }
+
     public void clearModify() {
         isModified_ = false;
     }
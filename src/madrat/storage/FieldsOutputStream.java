@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output of record's fields in layout 2 with flags: names are written by the dictionary
+ * (Field.LAYOUT_NAMES), strings are prefixed by UTF-8 length (Field.LAYOUT_UTF8).
+ * Every field type overrides Field.save(os), so the format is passed by the stream.
+ * Writes are not synchronized, so it is used for records' output even without flags.
+ */
+final class FieldsOutputStream extends DataOutputStream {
+    final NameDictionary names; // null - names are inline
+    final boolean isUtf8;
+
+    FieldsOutputStream(OutputStream os, NameDictionary n, boolean utf8) {
+        super(os);
+        names = n;
+        isUtf8 = utf8;
+    }
+
+    // DataOutputStream's writers are final and go through synchronized write(int),
+    // the output is a memory buffer of single thread (size() is not counted)
+
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+/**
+ * Backend of stores in files (JSR-75), one file per store
+ * CLDC has no memory mapped files, so a store is read into memory at opening
+ * and its changes are appended into the file (see FileRecordStore).
+ */
+public final class FileBackend implements IBackend {
+    private static final String EXT = ".rms";
+    static final String TEMP = ".tmp";
+
+    private final String dirUri_;
+    private final Hashtable stores_ = new Hashtable();     // opened stores
+
+    /**
+     * @param dirUri - directory's URI with trailing slash, e.g. "file:///root/lockore/"
+     */
+    public FileBackend(String dirUri) {
+        dirUri_ = dirUri;
+    }
+
+    private String getUri(String name) {
+        return dirUri_ + name + EXT;
+    }
+
+    public synchronized IRecordStore openRecordStore(String name, boolean create) throws RecordStoreException {
+        FileRecordStore store = (FileRecordStore)stores_.get(name);
+        if (null == store) {
+            final String uri = getUri(name);
+            FileConnection file = null;
+            try {
+                file = (FileConnection)Connector.open(uri, Connector.READ_WRITE);
+                recoverTemp(file, uri);
+                if (!file.exists() && !create)
+                    throw new RecordStoreNotFoundException(name);
+
+                store = new FileRecordStore(this, name, uri, file);
+                file = null;
+                stores_.put(name, store);
+            }
+            catch (IOException e) {
+                throw new RecordStoreException(e.toString());
+            }
+            finally {
+                close(file);
+            }
+        }
+        store.open();
+        return store;
+    }
+
+    /**
+     * Finish the interrupted log's rewriting
+     */
+    private static void recoverTemp(FileConnection file, String uri) throws IOException {
+        FileConnection temp = null;
+        try {
+            temp = (FileConnection)Connector.open(uri + TEMP, Connector.READ_WRITE);
+            if (!temp.exists())
+                return;
+            if (file.exists())
+                temp.delete();
+            else
+                temp.rename(file.getName());
+        }
+        finally {
+            close(temp);
+        }
+    }
+
+    public synchronized void deleteRecordStore(String name) throws RecordStoreException {
+        if (stores_.containsKey(name))
+            throw new RecordStoreException("Store is open");
+
+        FileConnection file = null;
+        try {
+            file = (FileConnection)Connector.open(getUri(name), Connector.READ_WRITE);
+            if (!file.exists())
+                throw new RecordStoreNotFoundException(name);
+            file.delete();
+        }
+        catch (IOException e) {
+            throw new RecordStoreException(e.toString());
+        }
+        finally {
+            close(file);
+        }
+    }
+
+    void closed(FileRecordStore store) {
+        stores_.remove(store.toString());
+    }
+
+    private static void close(FileConnection file) {
+        if (null == file)
+            return;
+        try {
+            file.close();
+        }
+        catch (IOException e) {
+        }
+    }
+}
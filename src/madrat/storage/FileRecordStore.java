@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Record store in a file (JSR-75), records are kept in memory
+ * The file is a log: |MAGIC|VARINT(NEXT RID)|entry|...|entry|
+ *  entry - |PUT|VARINT(RID)|VARINT(LEN)|data| or |DELETE|VARINT(RID)|
+ * Every change is appended (and flushed), a truncated last entry is dropped at loading.
+ * The log is rewritten at closing, if it is more then twice of records' size.
+ */
+final class FileRecordStore extends MemoryRecordStore {
+    private static final int MAGIC = 0x4C525331;   // "LRS1"
+    private static final int PUT = 1;
+    private static final int DELETE = 2;
+    private static final int MIN_GARBAGE = 4*1024;
+
+    private final FileBackend backend_;
+    private final String uri_;
+    private FileConnection file_;
+    private DataOutputStream log_;
+    private long length_;   // valid log length
+
+    FileRecordStore(FileBackend backend, String name, String uri, FileConnection file)
+                                        throws IOException, RecordStoreException {
+        super(name, Integer.MAX_VALUE);
+        backend_ = backend;
+        uri_ = uri;
+        file_ = file;
+
+        if (!file_.exists()) {
+            file_.create();
+            rewrite(file_);
+        }
+        else
+            load();
+
+        log_ = new DataOutputStream(file_.openOutputStream(length_));
+    }
+
+    private void load() throws IOException, RecordStoreException {
+        final long size = file_.fileSize();
+        if (size > Integer.MAX_VALUE)
+            throw new RecordStoreException("File is too large");
+
+        final byte[] data = Storage.alloc((int)size);
+        final InputStream is = file_.openInputStream();
+        try {
+            int pos = 0;
+            while (pos < data.length) {
+                final int n = is.read(data, pos, data.length - pos);
+                if (n < 0)
+                    throw new EOFException();
+                pos += n;
+            }
+        }
+        finally {
+            is.close();
+        }
+
+        final BufferInputStream bs = new BufferInputStream(data);
+        try {
+            if (data.length < 4 || MAGIC != (((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF)))
+                throw new RecordStoreException("Unknown file format");
+            bs.skip(4);
+            setNextRecordID(Stream.loadVarInt(bs));
+            length_ = data.length - bs.available();
+
+            while (bs.available() > 0) {
+                final int op = bs.read();
+                final int rid = Stream.loadVarInt(bs);
+                if (PUT == op) {
+                    final int len = Stream.loadVarInt(bs);
+                    if (rid < 1 || len < 0 || len > bs.available())
+                        break;
+                    final byte[] record = new byte[len];
+                    bs.read(record, 0, len);
+                    put(rid, record);
+                }
+                else if (DELETE == op)
+                    remove(rid);
+                else
+                    break;
+                length_ = data.length - bs.available();
+            }
+        }
+        catch (EOFException e) {
+        }
+
+        if (length_ < data.length)
+            file_.truncate(length_);
+    }
+
+    /**
+     * Write all records into the file
+     */
+    private void rewrite(FileConnection file) throws IOException {
+        final DataOutputStream os = file.openDataOutputStream();
+        try {
+            os.writeInt(MAGIC);
+            length_ = 4 + Stream.saveVarInt(os, nextRecordID());
+
+            final int[] rids = recordIDs();
+            for (int i = 0; i < rids.length; ++i) {
+                final byte[] data = record(rids[i]);
+                length_ += append(os, PUT, rids[i], data, 0, data.length);
+            }
+            os.flush();
+        }
+        finally {
+            os.close();
+        }
+        file.truncate(length_);
+    }
+
+    private static int append(DataOutputStream os, int op, int rid, byte[] data, int offset, int length) throws IOException {
+        os.write(op);
+        int len = 1 + Stream.saveVarInt(os, rid);
+        if (PUT == op) {
+            len += Stream.saveVarInt(os, length);
+            if (length > 0)
+                os.write(data, offset, length);
+            len += length;
+        }
+        return len;
+    }
+
+    /**
+     * Append change into the log, a failed entry is truncated
+     */
+    private void log(int op, int rid, byte[] data, int offset, int length) throws RecordStoreException {
+        try {
+            final int len = append(log_, op, rid, data, offset, length);
+            log_.flush();
+            length_ += len;
+        }
+        catch (IOException e) {
+            try {
+                log_.close();
+                file_.truncate(length_);
+                log_ = new DataOutputStream(file_.openOutputStream(length_));
+            }
+            catch (IOException ex) {
+            }
+            throw new RecordStoreException(e.toString());
+        }
+    }
+
+    public synchronized int getSizeAvailable() {
+        try {
+            return (int)Math.min(Integer.MAX_VALUE, file_.availableSize());
+        }
+        catch (Exception e) {
+            return 0;
+        }
+    }
+
+    public synchronized int addRecord(byte[] data, int offset, int length) throws RecordStoreException {
+        final int rid = getNextRecordID();
+        log(PUT, rid, data, offset, length);
+        return super.addRecord(data, offset, length);
+    }
+
+    public synchronized void setRecord(int rid, byte[] data, int offset, int length) throws RecordStoreException {
+        getRecordSize(rid);
+        log(PUT, rid, data, offset, length);
+        super.setRecord(rid, data, offset, length);
+    }
+
+    public synchronized void deleteRecord(int rid) throws RecordStoreException {
+        getRecordSize(rid);
+        log(DELETE, rid, null, 0, 0);
+        super.deleteRecord(rid);
+    }
+
+    /**
+     * Close the file, the log is rewritten through a temporary file if it has much garbage
+     */
+    void onClose() throws RecordStoreException {
+        try {
+            log_.close();
+            if (length_ > 2L * size() + MIN_GARBAGE) {
+                final FileConnection temp = (FileConnection)Connector.open(uri_ + FileBackend.TEMP, Connector.READ_WRITE);
+                try {
+                    if (!temp.exists())
+                        temp.create();
+                    rewrite(temp);
+                    file_.delete();
+                    temp.rename(file_.getName());
+                }
+                finally {
+                    temp.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RecordStoreException(e.toString());
+        }
+        finally {
+            try {
+                file_.close();
+            }
+            catch (IOException e) {
+            }
+            backend_.closed(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Worker of parallel unlock - decrypts heads of the records' chunk
+ * by own cipher and buffer
+ */
+final class HeadScanner implements Runnable {
+    private final Storage storage_;
+    private final int[] rids_;
+    private final int from_;
+    private final int to_;
+    private final Record[] heads_;
+    private final int maxSize_;
+    private Exception error_;
+
+    /**
+     * @param storage
+     * @param rids - all records
+     * @param from - 1st index of chunk
+     * @param to - index after chunk
+     * @param heads - result, heads[i] is head of rids[i]
+     * @param maxSize - max record size
+     */
+    HeadScanner(Storage storage, int[] rids, int from, int to, Record[] heads, int maxSize) {
+        storage_ = storage;
+        rids_ = rids;
+        from_ = from;
+        to_ = to;
+        heads_ = heads;
+        maxSize_ = maxSize;
+    }
+
+    public void run() {
+        CipherBuffer cb = null;
+        try {
+            final Cipher cipher = Storage.newCipher();
+            cb = CipherBuffer.acquire(storage_.getPool(), maxSize_);
+            for (int i = from_; i < to_; ++i)
+                heads_[i] = storage_.loadHead(cipher, rids_[i], cb);
+        }
+        catch (Exception e) {
+            error_ = e;
+        }
+        catch (OutOfMemoryError e) {
+            error_ = new RecordStoreException(e.toString());
+        }
+        finally {
+            if (null != cb)
+                cb.release(storage_.getPool());
+        }
+    }
+
+    /**
+     * Rethrow worker's error (call it after join)
+     */
+    void check() throws RecordStoreException, GeneralSecurityException, IOException {
+        if (null == error_)
+            return;
+        if (error_ instanceof RecordStoreException)
+            throw (RecordStoreException)error_;
+        if (error_ instanceof GeneralSecurityException)
+            throw (GeneralSecurityException)error_;
+        if (error_ instanceof IOException)
+            throw (IOException)error_;
+        if (error_ instanceof RuntimeException)
+            throw (RuntimeException)error_;
+        throw new RecordStoreException(error_.toString());
+    }
+}
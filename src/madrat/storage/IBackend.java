@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Factory of record stores (see Storage.setBackend)
+ */
+public interface IBackend {
+    /**
+     * @param name
+     * @param create - create if it doesn't exist
+     * @return opened store
+     * @throws RecordStoreNotFoundException - store doesn't exist and create is false
+     * @throws RecordStoreException
+     */
+    public IRecordStore openRecordStore(String name, boolean create) throws RecordStoreException;
+
+    /**
+     * @param name
+     * @throws RecordStoreNotFoundException
+     * @throws RecordStoreException
+     */
+    public void deleteRecordStore(String name) throws RecordStoreException;
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotOpenException;
+
+/**
+ * Record store used by Storage, it follows RMS RecordStore semantic:
+ * record IDs start from 1 and are not reused, operations are atomic.
+ */
+public interface IRecordStore {
+    public String getName() throws RecordStoreNotOpenException;
+
+    public int getNumRecords() throws RecordStoreNotOpenException;
+
+    public int getNextRecordID() throws RecordStoreException;
+
+    public int getSize() throws RecordStoreNotOpenException;
+
+    public int getSizeAvailable() throws RecordStoreNotOpenException;
+
+    /**
+     * @return IDs of existing records in ascending order
+     * @throws RecordStoreException
+     */
+    public int[] getRecordIDs() throws RecordStoreException;
+
+    public int getRecordSize(int rid) throws RecordStoreException;
+
+    /**
+     * @param rid
+     * @return data or null for empty record
+     * @throws RecordStoreException
+     */
+    public byte[] getRecord(int rid) throws RecordStoreException;
+
+    /**
+     * @param rid
+     * @param buffer
+     * @param offset
+     * @return data length
+     * @throws RecordStoreException
+     * @throws ArrayIndexOutOfBoundsException - buffer is too small
+     */
+    public int getRecord(int rid, byte[] buffer, int offset) throws RecordStoreException;
+
+    public int addRecord(byte[] data, int offset, int length) throws RecordStoreException;
+
+    public void setRecord(int rid, byte[] data, int offset, int length) throws RecordStoreException;
+
+    public void deleteRecord(int rid) throws RecordStoreException;
+
+    public void closeRecordStore() throws RecordStoreException;
+}
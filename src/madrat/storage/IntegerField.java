@@ -31,7 +31,7 @@ public class IntegerField extends Field {
     }
 
     public IntegerField(boolean isProtected, String name, int icon, int format, java.io.DataInputStream is) throws IOException {
-        this(isProtected, name, icon, format, is.readLong());
+        this(isProtected, name, icon, format, Stream.loadLong(is));
     }
 
     public IntegerField(boolean isProtected, String name, int icon, int format, long value) {
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * Write-ahead journal of RMS records (plain, it contains only RIDs)
+ *  |version|seq|state|watermark|nUpdates|target0|shadow0|...|nRemoves|rid0|...|
+ *
+ * RMS never reuses RIDs, so every record added during a transaction has RID
+ * at or above the watermark. Existing records are not overwritten in place:
+ * a new content is added as a shadow record and copied over the target after commit,
+ * removals are deferred till commit.
+ *
+ *  IDLE   - nothing to do
+ *  BEGIN  - interrupted transaction, rollback: delete records from the watermark
+ *  COMMIT - committed transaction, redo: copy shadows, delete removed records
+ */
+final class Journal {
+    private static final int VERSION = 1;
+
+    static final int IDLE   = 0;
+    static final int BEGIN  = 1;
+    static final int COMMIT = 2;
+
+    private final IRecordStore store_;
+    private int rid_;
+
+    private int seq_ = 0;
+    private int state_ = IDLE;
+    private int watermark_ = Storage.INVALID_RID;
+
+    private int[] targets_ = new int[4];
+    private int[] shadows_ = new int[4];
+    private int nUpdates_ = 0;
+
+    private int[] removes_ = new int[4];
+    private int nRemoves_ = 0;
+
+    /**
+     * Open journal
+     * @param store
+     * @param rid - journal's RID or INVALID_RID
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    Journal(IRecordStore store, int rid) throws RecordStoreException, IOException {
+        store_ = store;
+        rid_ = rid;
+
+        if (Storage.INVALID_RID == rid)
+            return;
+
+        final byte[] data;
+        try {
+            data = store.getRecord(rid);
+        }
+        catch (InvalidRecordIDException e) {
+            rid_ = Storage.INVALID_RID;
+            return;
+        }
+        if (null == data)
+            return;
+
+        final DataInputStream is = new DataInputStream(new ByteArrayInputStream(data));
+        final int version = is.readUnsignedByte();
+        if (VERSION != version)
+            throw new UnsupportedException("Journal", Integer.toString(version));
+
+        seq_ = Stream.loadVarInt(is);
+        state_ = is.readUnsignedByte();
+        watermark_ = Stream.loadVarInt(is);
+
+        nUpdates_ = Stream.loadVarInt(is);
+        targets_ = new int[Math.max(4, nUpdates_)];
+        shadows_ = new int[targets_.length];
+        for (int i = 0; i < nUpdates_; ++i) {
+            targets_[i] = Stream.loadVarInt(is);
+            shadows_[i] = Stream.loadVarInt(is);
+        }
+
+        nRemoves_ = Stream.loadVarInt(is);
+        removes_ = new int[Math.max(4, nRemoves_)];
+        for (int i = 0; i < nRemoves_; ++i)
+            removes_[i] = Stream.loadVarInt(is);
+    }
+
+    int getRid() {
+        return rid_;
+    }
+
+    int getSeq() {
+        return seq_;
+    }
+
+    int getState() {
+        return state_;
+    }
+
+    boolean isActive() {
+        return BEGIN == state_;
+    }
+
+    /**
+     * Start transaction
+     * @return journal's RID (it is created at first use)
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    int begin() throws RecordStoreException, IOException {
+        if (BEGIN == state_)
+            throw new IllegalStateException("Journal");
+
+        if (COMMIT == state_)   // previous commit is not completed
+            apply();
+
+        if (Storage.INVALID_RID == rid_)
+            rid_ = store_.addRecord(null, 0, 0);
+
+        // the transaction is started by the journal's write, memory state is restored on its failure
+        final int seq = seq_, state = state_, watermark = watermark_, nUpdates = nUpdates_, nRemoves = nRemoves_;
+        boolean isStarted = false;
+        try {
+            ++seq_;
+            nUpdates_ = 0;
+            nRemoves_ = 0;
+            watermark_ = store_.getNextRecordID();
+            state_ = BEGIN;
+            write();
+            isStarted = true;
+        }
+        finally {
+            if (!isStarted) {
+                seq_ = seq;
+                state_ = state;
+                watermark_ = watermark;
+                nUpdates_ = nUpdates;
+                nRemoves_ = nRemoves;
+            }
+        }
+        return rid_;
+    }
+
+    /**
+     * RID for writing of the record
+     * @param rid
+     * @return rid itself (or new records) or its shadow
+     */
+    int resolve(int rid) {
+        if (BEGIN == state_) {
+            final int i = indexOf(targets_, nUpdates_, rid);
+            if (i >= 0)
+                return shadows_[i];
+        }
+        return rid;
+    }
+
+    /**
+     * @param rid
+     * @return true if the record must be written into a shadow
+     */
+    boolean needsShadow(int rid) {
+        return BEGIN == state_ && rid < watermark_;
+    }
+
+    void update(int target, int shadow) {
+        if (nUpdates_ == targets_.length) {
+            targets_ = grow(targets_);
+            shadows_ = grow(shadows_);
+        }
+        targets_[nUpdates_] = target;
+        shadows_[nUpdates_] = shadow;
+        ++nUpdates_;
+    }
+
+    /**
+     * Remove record (immediately if it is new)
+     * @param rid
+     * @throws RecordStoreException
+     */
+    void remove(int rid) throws RecordStoreException {
+        if (!needsShadow(rid)) {
+            store_.deleteRecord(rid);
+            return;
+        }
+
+        final int i = indexOf(targets_, nUpdates_, rid);
+        if (i >= 0) {
+            store_.deleteRecord(shadows_[i]);
+            --nUpdates_;
+            targets_[i] = targets_[nUpdates_];
+            shadows_[i] = shadows_[nUpdates_];
+        }
+
+        if (nRemoves_ == removes_.length)
+            removes_ = grow(removes_);
+        removes_[nRemoves_++] = rid;
+    }
+
+    /**
+     * Commit point and apply of the transaction
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    void commit() throws RecordStoreException, IOException {
+        if (BEGIN != state_)
+            throw new IllegalStateException("Journal");
+
+        state_ = COMMIT;
+        try {
+            write();
+        }
+        catch (RecordStoreException e) {
+            state_ = BEGIN;     // not committed, it is rolled back
+            throw e;
+        }
+        catch (IOException e) {
+            state_ = BEGIN;
+            throw e;
+        }
+        apply();
+    }
+
+    /**
+     * Mark transaction as completed (after a directory is saved)
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    void finish() throws RecordStoreException, IOException {
+        nUpdates_ = 0;
+        nRemoves_ = 0;
+        state_ = IDLE;
+        write();
+    }
+
+    /**
+     * Undo interrupted transaction
+     * @param keep - system records, they are not deleted
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    void rollback(int[] keep) throws RecordStoreException, IOException {
+        if (BEGIN != state_)
+            return;
+
+        final int[] rids = store_.getRecordIDs();
+        for (int i = 0; i < rids.length; ++i) {
+            final int rid = rids[i];
+            if (rid >= watermark_ && rid != rid_ && indexOf(keep, keep.length, rid) < 0)
+                store_.deleteRecord(rid);
+        }
+        finish();
+    }
+
+    /**
+     * Complete interrupted transaction on store's opening
+     * @param keep - system records
+     * @return true if committed transaction was replayed (records are changed)
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    boolean recover(int[] keep) throws RecordStoreException, IOException {
+        switch (state_) {
+            case BEGIN:
+                rollback(keep);
+                return false;
+            case COMMIT:
+                apply();
+                finish();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Copy shadows and delete removed records, can be repeated
+     */
+    private void apply() throws RecordStoreException {
+        for (int i = 0; i < nUpdates_; ++i) {
+            try {
+                final byte[] data = store_.getRecord(shadows_[i]);
+                store_.setRecord(targets_[i], data, 0, (null == data) ? 0 : data.length);
+                store_.deleteRecord(shadows_[i]);
+            }
+            catch (InvalidRecordIDException e) { // already applied
+            }
+        }
+
+        for (int i = 0; i < nRemoves_; ++i) {
+            try {
+                store_.deleteRecord(removes_[i]);
+            }
+            catch (InvalidRecordIDException e) { // already applied
+            }
+        }
+    }
+
+    private void write() throws RecordStoreException, IOException {
+        final ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(bs);
+
+        os.write(VERSION);
+        Stream.saveVarInt(os, seq_);
+        os.write(state_);
+        Stream.saveVarInt(os, watermark_);
+
+        Stream.saveVarInt(os, nUpdates_);
+        for (int i = 0; i < nUpdates_; ++i) {
+            Stream.saveVarInt(os, targets_[i]);
+            Stream.saveVarInt(os, shadows_[i]);
+        }
+
+        Stream.saveVarInt(os, nRemoves_);
+        for (int i = 0; i < nRemoves_; ++i)
+            Stream.saveVarInt(os, removes_[i]);
+
+        final byte[] buffer = bs.toByteArray();
+        store_.setRecord(rid_, buffer, 0, buffer.length);
+    }
+
+    private static int indexOf(int[] a, int length, int value) {
+        for (int i = 0; i < length; ++i) {
+            if (value == a[i])
+                return i;
+        }
+        return -1;
+    }
+
+    private static int[] grow(int[] a) {
+        final int[] b = new int[a.length << 1];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.util.Hashtable;
+
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+/**
+ * Backend of in-memory stores (tests and benchmarks), stores live till the backend
+ */
+public final class MemoryBackend implements IBackend {
+    private final Hashtable stores_ = new Hashtable();
+    private final int limit_;
+
+    /**
+     * @param limit - max size of each store in bytes
+     */
+    public MemoryBackend(int limit) {
+        limit_ = limit;
+    }
+
+    public synchronized IRecordStore openRecordStore(String name, boolean create) throws RecordStoreException {
+        MemoryRecordStore store = (MemoryRecordStore)stores_.get(name);
+        if (null == store) {
+            if (!create)
+                throw new RecordStoreNotFoundException(name);
+            store = new MemoryRecordStore(name, limit_);
+            stores_.put(name, store);
+        }
+        store.open();
+        return store;
+    }
+
+    public synchronized void deleteRecordStore(String name) throws RecordStoreException {
+        final MemoryRecordStore store = (MemoryRecordStore)stores_.get(name);
+        if (null == store)
+            throw new RecordStoreNotFoundException(name);
+        if (store.isOpen())
+            throw new RecordStoreException("Store is open");
+        stores_.remove(name);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreFullException;
+import javax.microedition.rms.RecordStoreNotOpenException;
+
+/**
+ * Record store in memory, index of records' array is RID
+ * Like RMS store it is shared by openings and closed by the last one.
+ */
+class MemoryRecordStore implements IRecordStore {
+    static final int RECORD_OVERHEAD = 16;  // estimate of a record's header
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String name_;
+    private final int limit_;
+    private byte[][] records_ = new byte[16][];   // null - deleted (or not added) record
+    private int next_ = 1;
+    private int count_;
+    private int bytes_;     // records' data
+    private int opened_;
+
+    /**
+     * @param name
+     * @param limit - max size in bytes
+     */
+    MemoryRecordStore(String name, int limit) {
+        name_ = name;
+        limit_ = limit;
+    }
+
+    synchronized void open() {
+        ++opened_;
+    }
+
+    synchronized boolean isOpen() {
+        return opened_ > 0;
+    }
+
+    private void checkOpen() throws RecordStoreNotOpenException {
+        if (0 == opened_)
+            throw new RecordStoreNotOpenException(name_);
+    }
+
+    private byte[] find(int rid) throws RecordStoreException {
+        checkOpen();
+        if (rid < 1 || rid >= next_ || null == records_[rid])
+            throw new InvalidRecordIDException(Integer.toString(rid));
+        return records_[rid];
+    }
+
+    private void checkSpace(int length) throws RecordStoreFullException {
+        if (length > limit_ - size())
+            throw new RecordStoreFullException(name_);
+    }
+
+    private static byte[] copy(byte[] data, int offset, int length) {
+        if (null == data || 0 == length)
+            return EMPTY;
+        final byte[] b = new byte[length];
+        System.arraycopy(data, offset, b, 0, length);
+        return b;
+    }
+
+    /**
+     * Put record as is (loading), RID may be any
+     * @param rid
+     * @param data - it is kept (not copied)
+     * @return previous record's data or null
+     */
+    final synchronized byte[] put(int rid, byte[] data) {
+        if (rid >= records_.length) {
+            final byte[][] records = new byte[Math.max(rid + 1, records_.length << 1)][];
+            System.arraycopy(records_, 0, records, 0, records_.length);
+            records_ = records;
+        }
+
+        final byte[] old = records_[rid];
+        if (null != old)
+            bytes_ -= old.length;
+        else
+            ++count_;
+
+        records_[rid] = (null != data) ? data : EMPTY;
+        bytes_ += records_[rid].length;
+        next_ = Math.max(next_, rid + 1);
+        return old;
+    }
+
+    /**
+     * Remove record as is (loading)
+     * @param rid
+     * @return previous record's data or null
+     */
+    final synchronized byte[] remove(int rid) {
+        if (rid < 1 || rid >= next_ || null == records_[rid])
+            return null;
+
+        final byte[] old = records_[rid];
+        records_[rid] = null;
+        bytes_ -= old.length;
+        --count_;
+        return old;
+    }
+
+    final synchronized void setNextRecordID(int next) {
+        next_ = Math.max(next_, next);
+    }
+
+    final synchronized int nextRecordID() {
+        return next_;
+    }
+
+    /**
+     * @return RIDs in ascending order (store may be closed)
+     */
+    final synchronized int[] recordIDs() {
+        final int[] rids = new int[count_];
+        int count = 0;
+        for (int rid = 1; rid < next_; ++rid) {
+            if (null != records_[rid])
+                rids[count++] = rid;
+        }
+        return rids;
+    }
+
+    /**
+     * @param rid
+     * @return kept data (not a copy) or null
+     */
+    final synchronized byte[] record(int rid) {
+        return (rid < 1 || rid >= next_) ? null : records_[rid];
+    }
+
+    final synchronized int size() {
+        return bytes_ + count_ * RECORD_OVERHEAD;
+    }
+
+    public String getName() throws RecordStoreNotOpenException {
+        return name_;
+    }
+
+    public synchronized int getNumRecords() throws RecordStoreNotOpenException {
+        checkOpen();
+        return count_;
+    }
+
+    public synchronized int getNextRecordID() throws RecordStoreException {
+        checkOpen();
+        return next_;
+    }
+
+    public synchronized int getSize() throws RecordStoreNotOpenException {
+        checkOpen();
+        return size();
+    }
+
+    public synchronized int getSizeAvailable() throws RecordStoreNotOpenException {
+        return Math.max(0, limit_ - getSize());
+    }
+
+    public synchronized int[] getRecordIDs() throws RecordStoreException {
+        checkOpen();
+        return recordIDs();
+    }
+
+    public synchronized int getRecordSize(int rid) throws RecordStoreException {
+        return find(rid).length;
+    }
+
+    public synchronized byte[] getRecord(int rid) throws RecordStoreException {
+        final byte[] data = find(rid);
+        return (0 == data.length) ? null : copy(data, 0, data.length);
+    }
+
+    public synchronized int getRecord(int rid, byte[] buffer, int offset) throws RecordStoreException {
+        final byte[] data = find(rid);
+        System.arraycopy(data, 0, buffer, offset, data.length);
+        return data.length;
+    }
+
+    public synchronized int addRecord(byte[] data, int offset, int length) throws RecordStoreException {
+        checkOpen();
+        checkSpace(length + RECORD_OVERHEAD);
+        final int rid = next_;
+        put(rid, copy(data, offset, length));
+        return rid;
+    }
+
+    public synchronized void setRecord(int rid, byte[] data, int offset, int length) throws RecordStoreException {
+        checkSpace(length - find(rid).length);
+        put(rid, copy(data, offset, length));
+    }
+
+    public synchronized void deleteRecord(int rid) throws RecordStoreException {
+        find(rid);
+        remove(rid);
+    }
+
+    public synchronized void closeRecordStore() throws RecordStoreException {
+        checkOpen();
+        if (0 == --opened_)
+            onClose();
+    }
+
+    /**
+     * The last opening is closed
+     * @throws RecordStoreException
+     */
+    void onClose() throws RecordStoreException {
+    }
+
+    public String toString() {
+        return name_;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Store's dictionary of field names (layout 2 flag Field.LAYOUT_NAMES)
+ * A name in field's header is VARINT(ID) of dictionary's name or 0 + VARSTRING(NAME).
+ * Names are only appended, IDs start from 1. Loaded fields share name instances.
+ *  |VARINT(COUNT)|VARSTRING(NAME1)|...|
+ */
+final class NameDictionary {
+    private static final int MAX_NAMES = 1024;
+    private static final int MAX_NAME = 64;    // longer names are kept inline
+
+    private final Vector names_ = new Vector();
+    private final Hashtable ids_ = new Hashtable();    // name -> Integer(ID)
+    private boolean isModified_ = false;
+
+    int size() {
+        return names_.size();
+    }
+
+    /**
+     * @param name
+     * @return ID or 0 if name is not in dictionary
+     */
+    int find(String name) {
+        final Integer id = (Integer)ids_.get(name);
+        return (null != id) ? id.intValue() : 0;
+    }
+
+    /**
+     * Add name if it isn't known
+     * @param name
+     * @return ID or 0 if name is kept inline (empty, too long or dictionary is full)
+     */
+    int put(String name) {
+        int id = find(name);
+        if (0 != id || null == name || 0 == name.length() || name.length() > MAX_NAME || names_.size() >= MAX_NAMES)
+            return id;
+
+        names_.addElement(name);
+        id = names_.size();
+        ids_.put(name, new Integer(id));
+        isModified_ = true;
+        return id;
+    }
+
+    String get(int id) throws UnsupportedException {
+        if (id < 1 || id > names_.size())
+            throw new UnsupportedException("Field name", Integer.toString(id));
+        return (String)names_.elementAt(id - 1);
+    }
+
+    boolean isModified() {
+        return isModified_;
+    }
+
+    void clearModify() {
+        isModified_ = false;
+    }
+
+    void modify() {
+        isModified_ = true;
+    }
+
+    void saveName(DataOutputStream os, String name) throws IOException {
+        final int id = find(name);
+        Stream.saveVarInt(os, id);
+        if (0 == id)
+            Stream.saveString(os, name);
+    }
+
+    String loadName(DataInputStream is) throws IOException {
+        final int id = Stream.loadVarInt(is);
+        return (0 == id) ? Stream.loadString(is) : get(id);
+    }
+
+    void save(DataOutputStream os) throws IOException {
+        final int count = names_.size();
+        Stream.saveVarInt(os, count);
+        for (int i = 0; i < count; ++i)
+            Stream.saveVarString(os, (String)names_.elementAt(i));
+    }
+
+    static NameDictionary load(DataInputStream is) throws IOException {
+        final NameDictionary d = new NameDictionary();
+        final int count = Stream.loadVarInt(is);
+        if (count < 0 || count > MAX_NAMES)
+            throw new UnsupportedException("Field names", Integer.toString(count));
+
+        for (int i = 0; i < count; ++i) {
+            final String name = Stream.loadVarString(is);
+            d.names_.addElement(name);
+            d.ids_.put(name, new Integer(i + 1));
+        }
+        return d;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.IOException;
+
+/**
+ * Growable memory output buffer, its buffers are taken from (and wiped into) the pool
+ * Data is written from offset, the space before it is a cipher reserve.
+ */
+final class PoolOutputStream extends java.io.OutputStream {
+    private final BufferPool pool_;
+    private final int offset_;
+    private byte[] buffer_;
+    private int index_;
+
+    /**
+     * @param pool
+     * @param offset - reserved space before data
+     * @param capacity - expected data length
+     */
+    PoolOutputStream(BufferPool pool, int offset, int capacity) {
+        pool_ = pool;
+        offset_ = index_ = offset;
+        buffer_ = pool.acquire(offset + capacity);
+    }
+
+    private void ensure(int length) {
+        final int need = index_ + length;
+        if (need <= buffer_.length)
+            return;
+
+        final byte[] b = pool_.acquire(Math.max(need, buffer_.length << 1));
+        System.arraycopy(buffer_, 0, b, 0, index_);
+        pool_.release(buffer_);
+        buffer_ = b;
+    }
+
+    public void write(int b) throws IOException {
+        ensure(1);
+        buffer_[index_++] = (byte)b;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensure(len);
+        System.arraycopy(b, off, buffer_, index_, len);
+        index_ += len;
+    }
+
+    public int pos() {
+        return index_ - offset_;
+    }
+
+    /**
+     * Move position back (data after it is dropped)
+     * @param pos - new position, not more than the current
+     */
+    void seek(int pos) {
+        if (pos < 0 || pos > pos())
+            throw new IndexOutOfBoundsException();
+        index_ = offset_ + pos;
+    }
+
+    /**
+     * Write VARINT into the byte reserved at position, data after it is moved
+     * if VARINT is longer (length prefix is set after its data is written)
+     * @param pos - position of reserved byte
+     * @param value
+     * @throws IOException
+     */
+    void setVarInt(int pos, int value) throws IOException {
+        final int shift = Stream.varIntLength(value) - 1;
+        final int from = offset_ + pos + 1;
+        if (shift > 0) {
+            ensure(shift);
+            System.arraycopy(buffer_, from, buffer_, from + shift, index_ - from);
+        }
+
+        final int end = index_ + shift;
+        index_ = from - 1;
+        Stream.saveVarInt(this, value);
+        index_ = end;
+    }
+
+    /**
+     * Overwrite written byte
+     * @param pos
+     * @param b
+     */
+    void set(int pos, int b) {
+        buffer_[offset_ + pos] = (byte)b;
+    }
+
+    /**
+     * @return buffer, data is at getOffset()
+     */
+    byte[] getBuffer() {
+        return buffer_;
+    }
+
+    int getOffset() {
+        return offset_;
+    }
+
+    /**
+     * Reserve space
+     * @param length - free bytes after current position
+     */
+    void reserve(int length) {
+        ensure(length);
+    }
+
+    /**
+     * Give the buffer to cipher, stream must not be used after it
+     * @return buffer with data at offset
+     */
+    CipherBuffer detach() {
+        final CipherBuffer cb = new CipherBuffer(buffer_, offset_, null);
+        buffer_ = null;
+        return cb;
+    }
+
+    /**
+     * Wipe and return the buffer into pool (if it is not detached)
+     */
+    public void close() {
+        pool_.release(buffer_);
+        buffer_ = null;
+    }
+}
@@ -22,15 +22,26 @@ import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Hashtable;
 import java.util.Vector;
+import madrat.sys.Lz;
 import madrat.sys.SecureRandom;
 
 /**
  * Record - named set of fields
  */
 public final class Record extends StringField {
+    static final int NONCE_LEN = 15; // LAYOUT_2 + NONCE is a cipher block
+
+    private static final int INDEX_MIN = 8; // less fields are searched w/o index
+
+    private static final int SHUFFLE_SAMPLE = 3;            // bytes of random index
+    private static final int SHUFFLE_RANGE = 1 << 24;       // 2^(8*SHUFFLE_SAMPLE)
+    private static final int SHUFFLE_SPARE = 4;             // samples for rejections
+
     private int rid_;
     private final Vector fields_; // null - nobody
+    private Hashtable index_;     // name -> 1st field with it, null - not built
 
     public Record(int rid) {
         super(true, false, "", DEFAULT_ICON, DEFAULT_FORMAT, "");
@@ -39,9 +50,25 @@ public final class Record extends StringField {
     }
 
     public Record(int rid, boolean isNobody, DataInputStream is) throws IOException {
+        this(rid, isNobody, is, null, true);
+    }
+
+    Record(int rid, boolean isNobody, DataInputStream is, NameDictionary names, boolean isShuffled) throws IOException {
         super(true, false, "", DEFAULT_ICON, DEFAULT_FORMAT, "");
         fields_ = isNobody?null:new Vector();
-        load(rid, is);
+        load(rid, is, names, isShuffled);
+    }
+
+    /**
+     * Create head (nobody) from META field
+     * @param rid
+     * @param meta
+     */
+    Record(int rid, StringField meta) {
+        super(true, false, "", DEFAULT_ICON, DEFAULT_FORMAT, "");
+        fields_ = null;
+        rid_ = rid;
+        assignMeta(meta);
     }
 
     public final int getRid() {
@@ -73,20 +100,27 @@ public final class Record extends StringField {
         checkBody();
         modify();
         fields_.addElement(f);
+        f.setOwner(this);
+        if (null != index_ && !index_.containsKey(f.getName()))
+            index_.put(f.getName(), f);
     }
 
     public void remove(Field f) {
         checkBody();
         if (null != f) {
             modify();
-            fields_.removeElement(f);
+            if (fields_.removeElement(f))
+                f.setOwner(null);
+            index_ = null;
         }
     }
 
     public void remove(int index) {
         checkBody();
         modify();
+        ((Field)fields_.elementAt(index)).setOwner(null);
         fields_.removeElementAt(index);
+        index_ = null;
     }
 
     public Field at(int index) {
@@ -102,15 +136,40 @@ public final class Record extends StringField {
     public Field find(String name) {
         checkBody();
 
-        java.util.Enumeration e = fields_.elements();
-        while (e.hasMoreElements()) {
-            Field f = (Field)e.nextElement();
+        final int count = fields_.size();
+        if (count >= INDEX_MIN) {
+            if (null == index_)
+                buildIndex();
+            return (Field)index_.get(name);
+        }
+
+        for (int i = 0; i < count; ++i) {
+            Field f = (Field)fields_.elementAt(i);
             if (name.equals(f.getName()))
                 return f;
         }
         return null;
     }
 
+    /**
+     * Build index of names, it is dropped by remove/load and by renaming of record's field
+     */
+    private void buildIndex() {
+        final Hashtable index = new Hashtable(fields_.size() * 2);
+        for (int i = fields_.size() - 1; i >= 0; --i) {
+            Field f = (Field)fields_.elementAt(i);
+            index.put(f.getName(), f);
+        }
+        index_ = index;
+    }
+
+    /**
+     * A field is renamed (see Field.setName)
+     */
+    final void dropIndex() {
+        index_ = null;
+    }
+
     public String get(String name, String def) {
         checkBody();
 
@@ -124,6 +183,8 @@ public final class Record extends StringField {
         checkBody();
 
         Field f = find(name);
+        if (f instanceof IntegerField)
+            return ((IntegerField)f).getLong();
         if (null != f)
             return f.get(def);
         return def;
@@ -164,48 +225,245 @@ public final class Record extends StringField {
     }
 
     public void load(int rid, DataInputStream is) throws IOException {
+        load(rid, is, null, true);
+    }
+
+    /**
+     * Load record
+     * @param rid
+     * @param is
+     * @param names - store's dictionary, it is needed for fields in layout 2 with LAYOUT_NAMES
+     * @param isShuffled - fields are placed in random order
+     * @throws IOException
+     */
+    void load(int rid, DataInputStream is, NameDictionary names, boolean isShuffled) throws IOException {
         rid_ = rid;
-        if (!isNobody())
+        index_ = null;
+        if (!isNobody()) {
+            for (int i = fields_.size() - 1; i >= 0; --i)
+                ((Field)fields_.elementAt(i)).setOwner(null);
             fields_.removeAllElements();
+        }
 
+        byte[] unpacked = null;
+        NameDictionary dict = null;
+        boolean isFramed = false;
         try
         {
-            while (true) {
-                Field f = Field.load(is);
-                if (null == f)
-                    continue;
-                if (Field.META != f.getType()) {
-                    if (!isNobody())
+            is.mark(1);
+            final int layout = is.readUnsignedByte();
+            if (Field.LAYOUT_2 == (layout & Field.LAYOUT_MASK)) {
+                checkLayout(layout);
+                setFormat(is, layout);
+
+                is.skip(NONCE_LEN);
+                Stream.loadVarInt(is); // head length, needed only for partial decryption
+
+                Field f;
+                do {
+                    f = Field.load(is);
+                } while (null == f);
+
+                if (Field.META != f.getType())
+                    throw new UnsupportedException("Record head", Integer.toString(f.getType()));
+                assignMeta((StringField)f);
+
+                if (isNobody())
+                    return;
+
+                dict = getNames(layout, names);
+
+                if (0 != (layout & Field.LAYOUT_LZ)) {
+                    unpacked = unpack(is);
+                    is = setFormat(new BufferDataInputStream(unpacked, 0, unpacked.length), layout);
+                }
+                isFramed = (0 != (layout & Field.LAYOUT_FRAMED));
+            }
+            else
+                is.reset();
+
+            if (isFramed) {
+                // the rest is record's padding
+                for (int n = Stream.loadVarInt(is); n > 0; --n) {
+                    final int len = Stream.loadVarInt(is);
+                    is.mark(len);
+                    final Field f = Field.load(is, dict);
+                    if (null != f)
                         append(f);
+                    is.reset();
+                    is.skip(len);
                 }
-                else {
-                        StringField s = (StringField)f;
-                        super.setIcon(s.getIcon());
-                        super.setFormat(s.getFormat());
-                        super.setName(s.getName());
-                        super.set(s.getString());
-                        clearModify();
+            }
+            else {
+                while (true) {
+                    Field f = Field.load(is, dict);
+                    if (null == f)
+                        continue;
+                    if (Field.META != f.getType()) {
+                        if (!isNobody())
+                            append(f);
+                    }
+                    else
+                        assignMeta((StringField)f);
                 }
             }
         }
         catch (EOFException eof) {
         }
+        finally {
+            if (null != unpacked)
+                BufferPool.wipe(unpacked, 0, unpacked.length);
+        }
 
-        if (!isNobody()) {
+        if (isShuffled && !isNobody()) {
             try {
-                final int len = fields_.size();
-                for (int i = len-1; i >= 0; --i) {
-                    int v = SecureRandom.getInstance().getUInt31() % len;
-                    final Object p = fields_.elementAt(v);
-                    fields_.setElementAt(fields_.elementAt(i), v);
-                    fields_.setElementAt(p, i);
-                }
+                shuffle();
             }
             catch (GeneralSecurityException e) {
             }
         }
     }
 
+    /**
+     * Place fields in random order (Fisher-Yates), random bytes are taken by one call
+     * @throws GeneralSecurityException
+     */
+    private void shuffle() throws GeneralSecurityException {
+        final int len = fields_.size();
+        if (len < 2)
+            return;
+
+        final SecureRandom random = SecureRandom.getInstance();
+        final byte[] pool = new byte[(len + SHUFFLE_SPARE) * SHUFFLE_SAMPLE];
+        random.getBytes(pool, 0, pool.length);
+
+        int p = 0;
+        for (int i = len - 1; i > 0; --i) {
+            // samples above the largest multiple of bound are rejected, so v is unbiased
+            final int bound = i + 1;
+            final int limit = SHUFFLE_RANGE - (SHUFFLE_RANGE % bound);
+            int v;
+            do {
+                if (p == pool.length) {
+                    random.getBytes(pool, 0, pool.length);
+                    p = 0;
+                }
+                v = ((pool[p] & 0xFF) << 16) | ((pool[p+1] & 0xFF) << 8) | (pool[p+2] & 0xFF);
+                p += SHUFFLE_SAMPLE;
+            } while (v >= limit);
+            v %= bound;
+
+            final Object f = fields_.elementAt(v);
+            fields_.setElementAt(fields_.elementAt(i), v);
+            fields_.setElementAt(f, i);
+        }
+        BufferPool.wipe(pool, 0, pool.length);
+    }
+
+    /**
+     * Load single field of the record, framed record (layout 2 with LAYOUT_FRAMED)
+     * is not parsed, other fields are skipped by their lengths
+     * @param rid
+     * @param is - record's data (mark is supported)
+     * @param name
+     * @param names - store's dictionary
+     * @return the 1st field with the name or null
+     * @throws IOException
+     */
+    static Field loadField(int rid, DataInputStream is, String name, NameDictionary names) throws IOException {
+        is.mark(1);
+        final int layout = is.readUnsignedByte();
+        if (Field.LAYOUT_2 != (layout & Field.LAYOUT_MASK) || 0 == (layout & Field.LAYOUT_FRAMED)) {
+            is.reset();
+            return new Record(rid, false, is, names, false).find(name);
+        }
+        checkLayout(layout);
+        setFormat(is, layout);
+
+        is.skip(NONCE_LEN);
+        is.skip(Stream.loadVarInt(is)); // META
+
+        final NameDictionary dict = getNames(layout, names);
+        byte[] unpacked = null;
+        try {
+            if (0 != (layout & Field.LAYOUT_LZ)) {
+                unpacked = unpack(is);
+                is = setFormat(new BufferDataInputStream(unpacked, 0, unpacked.length), layout);
+            }
+
+            final int id = (null != dict) ? dict.find(name) : 0;
+            for (int n = Stream.loadVarInt(is); n > 0; --n) {
+                final int len = Stream.loadVarInt(is);
+                is.mark(len);
+                if (Field.isNamed(is, name, id, dict)) {
+                    is.reset();
+                    return Field.load(is, dict);
+                }
+                is.reset();
+                is.skip(len);
+            }
+            return null;
+        }
+        finally {
+            if (null != unpacked)
+                BufferPool.wipe(unpacked, 0, unpacked.length);
+        }
+    }
+
+    private static void checkLayout(int layout) throws UnsupportedException {
+        if (0 != (layout & ~(Field.LAYOUT_MASK | Field.LAYOUT_LZ | Field.LAYOUT_NAMES | Field.LAYOUT_FRAMED | Field.LAYOUT_UTF8)))
+            throw new UnsupportedException("Record layout", Integer.toString(layout));
+    }
+
+    /**
+     * Set strings' format of the stream by layout's flags
+     * @param is
+     * @param layout
+     * @return the stream
+     * @throws UnsupportedException - length-prefixed UTF-8 strings are decoded only from memory buffer
+     */
+    private static DataInputStream setFormat(DataInputStream is, int layout) throws UnsupportedException {
+        final boolean isUtf8 = (0 != (layout & Field.LAYOUT_UTF8));
+        if (is instanceof BufferDataInputStream)
+            ((BufferDataInputStream)is).isUtf8 = isUtf8;
+        else if (isUtf8)
+            throw new UnsupportedException("Record layout", "UTF-8 strings");
+        return is;
+    }
+
+    private static NameDictionary getNames(int layout, NameDictionary names) throws UnsupportedException {
+        if (0 == (layout & Field.LAYOUT_NAMES))
+            return null;
+        if (null == names)
+            throw new UnsupportedException("Record layout", "No field names");
+        return names;
+    }
+
+    /**
+     * Decompress fields: VARINT(LEN) + VARINT(LZ LEN) + LZ(fields)
+     * @param is
+     * @return fields, should be wiped
+     * @throws IOException
+     */
+    private static byte[] unpack(DataInputStream is) throws IOException {
+        final int length = Stream.loadVarInt(is);
+        final int packed = Stream.loadVarInt(is);
+        if (length < 0 || packed < 0)
+            throw new UnsupportedException("Record LZ", Integer.toString(length));
+
+        final byte[] unpacked = Storage.alloc(length);
+        Lz.decompress(is, packed, unpacked, 0, length);
+        return unpacked;
+    }
+
+    private void assignMeta(StringField s) {
+        super.setIcon(s.getIcon());
+        super.setFormat(s.getFormat());
+        super.setName(s.getName());
+        super.set(s.getString());
+        clearModify();
+    }
+
     public boolean isModified() {
         if (isNobody())
             return false;
@@ -234,13 +492,26 @@ public final class Record extends StringField {
         }
     }
 
+    /**
+     * Save current fields into stream (plain layout, META is last)
+     * @param os
+     * @throws IOException
+     */
     public void save(DataOutputStream os) throws IOException {
         checkBody();
-        save(os, null, 0);
+
+        // |E0|E1|..En-1|M|
+        for (int i = fields_.size()-1; i >= 0; --i ) {
+            Field f = (Field)fields_.elementAt(i);
+            f.save(os);
+        }
+
+        super.save(os);
+        clearModify();
     }
 
     /**
-     * Save current fields into stream
+     * Save current fields into stream (layout 2, META is first)
      * @param os
      * @param rand
      * @param saltLen
@@ -248,24 +519,106 @@ public final class Record extends StringField {
      */
     public void save(DataOutputStream os,
                 java.util.Random rand, int saltLen) throws IOException {
+        // |L|NONCE|len(M)|M|E0|E1|..En-1|
+        final PoolOutputStream bs = new PoolOutputStream(new BufferPool(0), 0, madrat.sys.Cipher.CIPER_BLOCK);
+        try {
+            saveLayout(bs, rand, 0);
+            saveFields(bs, rand, saltLen, null, 0);
+            os.write(bs.getBuffer(), bs.getOffset(), bs.pos());
+        }
+        finally {
+            bs.close();
+        }
+    }
+
+    /**
+     * Save layout 2 prefix and META: |L|NONCE|len(M)|M|
+     * @param bs - memory output, lengths are set after the data
+     * @param rand
+     * @param flags - layout flags
+     * @throws IOException
+     */
+    final void saveLayout(PoolOutputStream bs, java.util.Random rand, int flags) throws IOException {
         checkBody();
 
+        bs.write(Field.LAYOUT_2 | flags);
+        for (int i = NONCE_LEN; i > 0; --i)
+            bs.write(rand.nextInt());
+
+        // head's length is written after the head into reserved byte
+        final int pos = bs.pos();
+        bs.write(0);
+        saveHead(new FieldsOutputStream(bs, null, 0 != (flags & Field.LAYOUT_UTF8)));
+        bs.setVarInt(pos, bs.pos() - pos - 1);
+    }
+
+    /**
+     * Save fields (layout 2) with the salt at random place
+     * @param bs - memory output, lengths are set after the data
+     * @param rand
+     * @param saltLen
+     * @param names - dictionary with all fields' names (see putNames) or null
+     * @param flags - layout flags: Field.LAYOUT_FRAMED - every field and the salt are prefixed by length,
+     *                Field.LAYOUT_UTF8 - strings are prefixed by UTF-8 length
+     * @throws IOException
+     */
+    final void saveFields(PoolOutputStream bs,
+                java.util.Random rand, int saltLen, NameDictionary names, int flags) throws IOException {
+        checkBody();
+        final boolean isFramed = (0 != (flags & Field.LAYOUT_FRAMED));
+        final DataOutputStream os = new FieldsOutputStream(bs, names, 0 != (flags & Field.LAYOUT_UTF8));
+
         final int nElements = fields_.size();
-        // |E0|E1|..En-1|M|
-        final int nSaltPlaces = nElements + 2;
-        int saltInd = (null != rand)?Math.abs(rand.nextInt()) % nSaltPlaces:0;
+        final int nSaltPlaces = nElements + 1;
+        int saltInd = Math.abs(rand.nextInt()) % nSaltPlaces;
+
+        if (isFramed)
+            Stream.saveVarInt(os, nElements + ((saltLen > 0) ? 1 : 0));
 
         for (int i = nElements-1; i >= 0; --i ) {
-            if (0 == --saltInd)
-                savePad(os, rand, saltLen);
+            if (0 == saltInd--)
+                saveSalt(os, rand, saltLen, isFramed);
             Field f = (Field)fields_.elementAt(i);
-            f.save(os);
+            if (isFramed) {
+                // field's length is written after the field into reserved byte
+                final int pos = bs.pos();
+                bs.write(0);
+                f.save(os);
+                bs.setVarInt(pos, bs.pos() - pos - 1);
+            }
+            else
+                f.save(os);
         }
 
-        if (0 == --saltInd)
-            savePad(os, rand, saltLen);
+        if (0 == saltInd)
+            saveSalt(os, rand, saltLen, isFramed);
 
-        super.save(os);
         clearModify();
     }
+
+    private static void saveSalt(DataOutputStream os,
+                java.util.Random rand, int saltLen, boolean isFramed) throws IOException {
+        if (isFramed && saltLen > 0)
+            Stream.saveVarInt(os, saltLen);
+        savePad(os, rand, saltLen);
+    }
+
+    /**
+     * Add fields' names into dictionary
+     * @param names
+     */
+    final void putNames(NameDictionary names) {
+        checkBody();
+        for (int i = fields_.size() - 1; i >= 0; --i)
+            names.put(((Field)fields_.elementAt(i)).getName());
+    }
+
+    /**
+     * Save only META (name, icon, format and description)
+     * @param os
+     * @throws IOException
+     */
+    final void saveHead(DataOutputStream os) throws IOException {
+        super.save(os);
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+/**
+ * LRU cache of decrypted records (plain bytes, not Record objects - they are mutable)
+ * Limited by entries and bytes, evicted and cleared data is wiped.
+ */
+final class RecordCache {
+    private int maxEntries_;
+    private int maxBytes_;
+
+    // LRU order: 0 - the oldest
+    private int[] rids_ = new int[0];
+    private byte[][] data_ = new byte[0][];
+    private int count_;
+    private int bytes_;
+
+    RecordCache(int maxEntries, int maxBytes) {
+        setLimits(maxEntries, maxBytes);
+    }
+
+    /**
+     * @param maxEntries - 0 disables cache
+     * @param maxBytes
+     */
+    void setLimits(int maxEntries, int maxBytes) {
+        clear();
+        maxEntries_ = Math.max(0, maxEntries);
+        maxBytes_ = Math.max(0, maxBytes);
+        rids_ = new int[maxEntries_];
+        data_ = new byte[maxEntries_][];
+    }
+
+    /**
+     * @param rid
+     * @return decrypted record or null (caller must not modify it)
+     */
+    byte[] get(int rid) {
+        final int i = indexOf(rid);
+        if (i < 0)
+            return null;
+
+        final byte[] d = data_[i];
+        // move to the newest place
+        System.arraycopy(rids_, i + 1, rids_, i, count_ - i - 1);
+        System.arraycopy(data_, i + 1, data_, i, count_ - i - 1);
+        rids_[count_ - 1] = rid;
+        data_[count_ - 1] = d;
+        return d;
+    }
+
+    void put(int rid, byte[] buffer, int offset, int length) {
+        remove(rid);
+        if (0 == maxEntries_ || length > maxBytes_)
+            return;
+
+        while (count_ >= maxEntries_ || bytes_ + length > maxBytes_)
+            removeAt(0);
+
+        final byte[] d = Storage.alloc(length);
+        System.arraycopy(buffer, offset, d, 0, length);
+        rids_[count_] = rid;
+        data_[count_] = d;
+        ++count_;
+        bytes_ += length;
+    }
+
+    void remove(int rid) {
+        final int i = indexOf(rid);
+        if (i >= 0)
+            removeAt(i);
+    }
+
+    void clear() {
+        while (count_ > 0)
+            removeAt(count_ - 1);
+    }
+
+    private int indexOf(int rid) {
+        for (int i = count_ - 1; i >= 0; --i) {
+            if (rid == rids_[i])
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        final byte[] d = data_[i];
+        BufferPool.wipe(d, 0, d.length);
+        bytes_ -= d.length;
+        --count_;
+        System.arraycopy(rids_, i + 1, rids_, i, count_ - i);
+        System.arraycopy(data_, i + 1, data_, i, count_ - i);
+        data_[count_] = null;
+    }
+}
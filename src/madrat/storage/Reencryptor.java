@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.util.Vector;
+
+/**
+ * Copy all records into other (new) store
+ * Reader stage (RMS read + decrypt by source key) works in own thread,
+ * writer stage (encrypt by destination key + RMS write) works in the caller's thread.
+ * Stages are connected by bounded queue, so decryption and encryption overlap.
+ */
+public final class Reencryptor implements Runnable {
+    public static final int DEFAULT_QUEUE = 4;
+
+    private final Storage from_;
+    private final Storage to_;
+    private final IProgress progress_;
+    private final int capacity_;
+
+    private final Vector queue_;
+    private boolean isReading_;
+    private volatile boolean isCancelled_ = false;
+    private Exception error_;
+
+    /**
+     * @param from - unlocked source store
+     * @param to - unlocked destination store
+     * @param capacity - max decrypted records in queue
+     * @param progress - callback (may be null), it is called from writer's thread
+     */
+    public Reencryptor(Storage from, Storage to, int capacity, IProgress progress) {
+        from_ = from;
+        to_ = to;
+        capacity_ = Math.max(1, capacity);
+        progress_ = progress;
+        queue_ = new Vector(capacity_);
+    }
+
+    /**
+     * Stop copying, copy() throws InterruptedException (or false from progress)
+     */
+    public void cancel() {
+        isCancelled_ = true;
+        synchronized (queue_) {
+            queue_.notifyAll();
+        }
+    }
+
+    public boolean isCancelled() {
+        return isCancelled_;
+    }
+
+    /**
+     * Copy records, returns when all of them are written
+     * On failure the reader is stopped and the destination's batch is aborted
+     * @throws InterruptedException - cancelled
+     * @throws Exception - reader's or writer's error
+     */
+    public void copy() throws Exception {
+        final int count = from_.size();
+
+        synchronized (queue_) {
+            queue_.removeAllElements();
+            isReading_ = true;
+            error_ = null;
+        }
+
+        final Thread reader = new Thread(this);
+        reader.start();
+
+        boolean isDone = false;
+        try {
+            to_.beginBatch();
+            for (int i = 0; i < count; ++i) {
+                if (null != progress_ && !progress_.onProgress(i, count))
+                    throw new InterruptedException();
+
+                to_.insertNew(take());
+            }
+            to_.commitBatch();
+            isDone = true;
+
+            if (null != progress_)
+                progress_.onProgress(count, count);
+        }
+        finally {
+            if (!isDone)
+                cancel();
+            join(reader);
+
+            if (!isDone)
+                to_.abortBatch();
+            queue_.removeAllElements();
+        }
+    }
+
+    /**
+     * Wait for the reader's end, interruption of the caller doesn't leave it running
+     * @param reader
+     */
+    private static void join(Thread reader) {
+        boolean isInterrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            }
+            catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Reader stage
+     */
+    public void run() {
+        try {
+            final int count = from_.size();
+            for (int i = 0; i < count && !isCancelled_; ++i)
+                put(from_.cloneRecord(from_.get(i), null));
+        }
+        catch (Exception e) {
+            synchronized (queue_) {
+                error_ = e;
+            }
+        }
+        finally {
+            synchronized (queue_) {
+                isReading_ = false;
+                queue_.notifyAll();
+            }
+        }
+    }
+
+    private void put(Record r) throws InterruptedException {
+        synchronized (queue_) {
+            while (queue_.size() >= capacity_) {
+                if (isCancelled_)
+                    throw new InterruptedException();
+                queue_.wait();
+            }
+            queue_.addElement(r);
+            queue_.notifyAll();
+        }
+    }
+
+    private Record take() throws Exception {
+        synchronized (queue_) {
+            while (true) {
+                if (isCancelled_)
+                    throw new InterruptedException();
+
+                if (!queue_.isEmpty()) {
+                    final Record r = (Record)queue_.elementAt(0);
+                    queue_.removeElementAt(0);
+                    queue_.notifyAll();
+                    return r;
+                }
+
+                if (null != error_)
+                    throw error_;
+
+                if (!isReading_)
+                    throw new StorageException("Source is changed");
+
+                queue_.wait();
+            }
+        }
+    }
+}
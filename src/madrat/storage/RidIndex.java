@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+/**
+ * Record ID to index map (open addressing, linear probing)
+ * RID 0 is invalid and used as a free slot marker
+ */
+final class RidIndex {
+    private static final int FREE = 0;
+    private static final int MIN_CAPACITY = 16;  // power of 2
+
+    private int[] keys_;
+    private int[] values_;
+    private int size_;
+
+    RidIndex() {
+        clear();
+    }
+
+    private static int hash(int key, int mask) {
+        return (key * 0x9E3779B9) & mask;
+    }
+
+    void clear() {
+        keys_ = new int[MIN_CAPACITY];
+        values_ = new int[MIN_CAPACITY];
+        size_ = 0;
+    }
+
+    int size() {
+        return size_;
+    }
+
+    /**
+     * Find index by RID
+     * @param key
+     * @return index or -1
+     */
+    int get(int key) {
+        if (FREE == key)
+            return -1;
+
+        final int mask = keys_.length - 1;
+        for (int i = hash(key, mask); FREE != keys_[i]; i = (i + 1) & mask) {
+            if (key == keys_[i])
+                return values_[i];
+        }
+        return -1;
+    }
+
+    void put(int key, int value) {
+        if (FREE == key)
+            throw new IllegalArgumentException();
+
+        if ((size_ + 1) << 1 > keys_.length)
+            rehash(keys_.length << 1);
+
+        final int mask = keys_.length - 1;
+        int i = hash(key, mask);
+        for (; FREE != keys_[i]; i = (i + 1) & mask) {
+            if (key == keys_[i]) {
+                values_[i] = value;
+                return;
+            }
+        }
+        keys_[i] = key;
+        values_[i] = value;
+        ++size_;
+    }
+
+    void remove(int key) {
+        if (FREE == key)
+            return;
+
+        final int mask = keys_.length - 1;
+        int i = hash(key, mask);
+        for (; key != keys_[i]; i = (i + 1) & mask) {
+            if (FREE == keys_[i])
+                return;
+        }
+
+        // backward shift deletion - keep probe chains without tombstones
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            final int k = keys_[j];
+            if (FREE == k)
+                break;
+            final int h = hash(k, mask);
+            // move k if its home slot is not in (i, j]
+            if ((i <= j) ? (h <= i || h > j) : (h <= i && h > j)) {
+                keys_[i] = k;
+                values_[i] = values_[j];
+                i = j;
+            }
+        }
+        keys_[i] = FREE;
+        --size_;
+    }
+
+    private void rehash(int capacity) {
+        final int[] keys = keys_;
+        final int[] values = values_;
+        keys_ = new int[capacity];
+        values_ = new int[capacity];
+        size_ = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (FREE != keys[i])
+                put(keys[i], values[i]);
+        }
+    }
+}
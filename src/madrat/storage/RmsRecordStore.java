@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotOpenException;
+
+import madrat.sys.Metrics;
+
+/**
+ * RMS record store
+ */
+final class RmsRecordStore implements IRecordStore {
+    private static final int M_READ = Metrics.register("RMS read");
+    private static final int M_WRITE = Metrics.register("RMS write");
+
+    private final RecordStore store_;
+
+    RmsRecordStore(RecordStore store) {
+        store_ = store;
+    }
+
+    public String getName() throws RecordStoreNotOpenException {
+        return store_.getName();
+    }
+
+    public int getNumRecords() throws RecordStoreNotOpenException {
+        return store_.getNumRecords();
+    }
+
+    public int getNextRecordID() throws RecordStoreException {
+        return store_.getNextRecordID();
+    }
+
+    public int getSize() throws RecordStoreNotOpenException {
+        return store_.getSize();
+    }
+
+    public int getSizeAvailable() throws RecordStoreNotOpenException {
+        return store_.getSizeAvailable();
+    }
+
+    public int[] getRecordIDs() throws RecordStoreException {
+        RecordEnumeration e = null;
+        try {
+            e = store_.enumerateRecords(null, null, false);
+            final int[] rids = new int[e.numRecords()];
+            int count = 0;
+            while (e.hasNextElement() && count < rids.length)
+                rids[count++] = e.nextRecordId();
+
+            // shell sort, enumeration's order is not defined
+            for (int gap = count >> 1; gap > 0; gap >>= 1) {
+                for (int i = gap; i < count; ++i) {
+                    final int v = rids[i];
+                    int j = i;
+                    for (; j >= gap && rids[j - gap] > v; j -= gap)
+                        rids[j] = rids[j - gap];
+                    rids[j] = v;
+                }
+            }
+            return rids;
+        }
+        finally {
+            if (null != e)
+                e.destroy();
+        }
+    }
+
+    public int getRecordSize(int rid) throws RecordStoreException {
+        return store_.getRecordSize(rid);
+    }
+
+    public byte[] getRecord(int rid) throws RecordStoreException {
+        final long t = Metrics.start();
+        try {
+            return store_.getRecord(rid);
+        } finally {
+            Metrics.stop(M_READ, t);
+        }
+    }
+
+    public int getRecord(int rid, byte[] buffer, int offset) throws RecordStoreException {
+        final long t = Metrics.start();
+        try {
+            return store_.getRecord(rid, buffer, offset);
+        } finally {
+            Metrics.stop(M_READ, t);
+        }
+    }
+
+    public int addRecord(byte[] data, int offset, int length) throws RecordStoreException {
+        final long t = Metrics.start();
+        try {
+            return store_.addRecord(data, offset, length);
+        } finally {
+            Metrics.stop(M_WRITE, t);
+        }
+    }
+
+    public void setRecord(int rid, byte[] data, int offset, int length) throws RecordStoreException {
+        final long t = Metrics.start();
+        try {
+            store_.setRecord(rid, data, offset, length);
+        } finally {
+            Metrics.stop(M_WRITE, t);
+        }
+    }
+
+    public void deleteRecord(int rid) throws RecordStoreException {
+        store_.deleteRecord(rid);
+    }
+
+    public void closeRecordStore() throws RecordStoreException {
+        store_.closeRecordStore();
+    }
+
+    public String toString() {
+        return store_.toString();
+    }
+}
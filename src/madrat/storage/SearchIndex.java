@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import madrat.sys.QuickSort;
+
+/**
+ * Inverted index: lowercase token -> RIDs
+ * Tokens are words of record's name, description and unprotected field names.
+ *  |version|seq|nRecords|rid0|...|nTokens|token0|nRids|rid0|rid1-rid0|...|...|
+ * seq is a journal's sequence number of the last change, index is stale if it differs
+ * or its records (all indexed RIDs, with or w/o tokens) are not the directory's ones.
+ */
+final class SearchIndex {
+    private static final int VERSION = 1;
+    private static final int MAX_TOKEN = 32;
+
+    private final Hashtable postings_ = new Hashtable(); // String -> int[] (count at [0], sorted RIDs)
+    private final Hashtable tokens_ = new Hashtable();   // Integer(RID) -> String[]
+    private String[] sorted_ = null;                     // sorted tokens, null - must be rebuilt
+    private int seq_;
+
+    SearchIndex(int seq) {
+        seq_ = seq;
+    }
+
+    int getSeq() {
+        return seq_;
+    }
+
+    void setSeq(int seq) {
+        seq_ = seq;
+    }
+
+    /**
+     * Tokens of the record (head gives only name and description)
+     * @param r
+     * @return unique lowercase tokens
+     */
+    static String[] tokenize(Record r) {
+        final Vector v = new Vector();
+        split(v, r.getName());
+        split(v, r.getDescription());
+
+        if (!r.isNobody()) {
+            final int count = r.size();
+            for (int i = 0; i < count; ++i) {
+                final Field f = r.at(i);
+                if (!f.isProtected())
+                    split(v, f.getName());
+            }
+        }
+
+        final String[] tokens = new String[v.size()];
+        v.copyInto(tokens);
+        return tokens;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c > 0x7F || Character.isDigit(c) || (c >= 'a' && c <= 'z');
+    }
+
+    private static void split(Vector v, String text) {
+        if (null == text)
+            return;
+
+        text = text.toLowerCase();
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTokenChar(text.charAt(i)))
+                ++i;
+            final int start = i;
+            while (i < length && isTokenChar(text.charAt(i)))
+                ++i;
+            if (i > start) {
+                final String t = text.substring(start, Math.min(i, start + MAX_TOKEN));
+                if (!v.contains(t))
+                    v.addElement(t);
+            }
+        }
+    }
+
+    void put(int rid, Record r) {
+        remove(rid);
+
+        final String[] tokens = tokenize(r);
+        for (int i = 0; i < tokens.length; ++i)
+            addPosting(tokens[i], rid);
+        tokens_.put(new Integer(rid), tokens);
+    }
+
+    void remove(int rid) {
+        final String[] tokens = (String[])tokens_.remove(new Integer(rid));
+        if (null == tokens)
+            return;
+
+        for (int i = 0; i < tokens.length; ++i) {
+            final int[] p = (int[])postings_.get(tokens[i]);
+            if (null == p)
+                continue;
+
+            final int index = find(p, rid);
+            if (index < 0)
+                continue;
+
+            System.arraycopy(p, index + 1, p, index, p[0] - index);
+            if (0 == --p[0]) {
+                postings_.remove(tokens[i]);
+                sorted_ = null;
+            }
+        }
+    }
+
+    boolean contains(int rid) {
+        return tokens_.containsKey(new Integer(rid));
+    }
+
+    int size() {
+        return tokens_.size();
+    }
+
+    /**
+     * Find records with a token started by prefix
+     * @param prefix - any case, empty - all records
+     * @return sorted RIDs
+     */
+    int[] search(String prefix) {
+        prefix = prefix.toLowerCase();
+        final String[] sorted = sorted();
+
+        // 1st token >= prefix
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sorted[mid].compareTo(prefix) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        int[] result = new int[1];
+        for (int i = lo; i < sorted.length && sorted[i].startsWith(prefix); ++i)
+            result = merge(result, (int[])postings_.get(sorted[i]));
+
+        final int[] rids = new int[result[0]];
+        System.arraycopy(result, 1, rids, 0, rids.length);
+        return rids;
+    }
+
+    void save(DataOutputStream os) throws IOException {
+        os.write(VERSION);
+        Stream.saveVarInt(os, seq_);
+
+        Stream.saveVarInt(os, tokens_.size());
+        final Enumeration r = tokens_.keys();
+        while (r.hasMoreElements())
+            Stream.saveVarInt(os, ((Integer)r.nextElement()).intValue());
+
+        Stream.saveVarInt(os, postings_.size());
+        final Enumeration e = postings_.keys();
+        while (e.hasMoreElements()) {
+            final String token = (String)e.nextElement();
+            final int[] p = (int[])postings_.get(token);
+
+            Stream.saveVarString(os, token);
+            Stream.saveVarInt(os, p[0]);
+            int prev = 0;
+            for (int i = 1; i <= p[0]; ++i) {
+                Stream.saveVarInt(os, p[i] - prev);
+                prev = p[i];
+            }
+        }
+    }
+
+    static SearchIndex load(DataInputStream is) throws IOException {
+        final int version = is.readUnsignedByte();
+        if (VERSION != version)
+            throw new UnsupportedException("Index", Integer.toString(version));
+
+        final SearchIndex index = new SearchIndex(Stream.loadVarInt(is));
+        final int nRecords = Stream.loadVarInt(is);
+        if (nRecords < 0)
+            throw new UnsupportedException("Index", Integer.toString(nRecords));
+
+        final Hashtable tokens = new Hashtable(); // Integer -> Vector
+        for (int i = 0; i < nRecords; ++i)
+            tokens.put(new Integer(Stream.loadVarInt(is)), new Vector(4));
+
+        final int nTokens = Stream.loadVarInt(is);
+        if (nTokens < 0)
+            throw new UnsupportedException("Index", Integer.toString(nTokens));
+
+        for (int i = 0; i < nTokens; ++i) {
+            final String token = Stream.loadVarString(is);
+            final int n = Stream.loadVarInt(is);
+            if (n <= 0)
+                throw new UnsupportedException("Index", Integer.toString(n));
+
+            final int[] p = new int[n + 1];
+            p[0] = n;
+            int rid = 0;
+            for (int j = 1; j <= n; ++j) {
+                rid += Stream.loadVarInt(is);
+                p[j] = rid;
+
+                final Vector v = (Vector)tokens.get(new Integer(rid));
+                if (null == v)
+                    throw new UnsupportedException("Index", Integer.toString(rid));
+                v.addElement(token);
+            }
+            index.postings_.put(token, p);
+        }
+
+        final Enumeration e = tokens.keys();
+        while (e.hasMoreElements()) {
+            final Object key = e.nextElement();
+            final Vector v = (Vector)tokens.get(key);
+            final String[] t = new String[v.size()];
+            v.copyInto(t);
+            index.tokens_.put(key, t);
+        }
+        return index;
+    }
+
+    private String[] sorted() {
+        if (null == sorted_) {
+            final Vector v = new Vector(postings_.size());
+            final Enumeration e = postings_.keys();
+            while (e.hasMoreElements())
+                v.addElement(e.nextElement());
+            QuickSort.sort(v, new QuickSort());
+            sorted_ = new String[v.size()];
+            v.copyInto(sorted_);
+        }
+        return sorted_;
+    }
+
+    private void addPosting(String token, int rid) {
+        int[] p = (int[])postings_.get(token);
+        if (null == p) {
+            p = new int[4];
+            postings_.put(token, p);
+            sorted_ = null;
+        }
+
+        int index = find(p, rid);
+        if (index >= 0)
+            return;
+        index = -index - 1;
+
+        if (p[0] + 1 == p.length) {
+            final int[] g = new int[p.length << 1];
+            System.arraycopy(p, 0, g, 0, p.length);
+            p = g;
+            postings_.put(token, p);
+        }
+        System.arraycopy(p, index, p, index + 1, p[0] + 1 - index);
+        p[index] = rid;
+        ++p[0];
+    }
+
+    /**
+     * Binary search at posting
+     * @return index or -(insertion index)-1
+     */
+    private static int find(int[] p, int rid) {
+        int lo = 1, hi = p[0];
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (p[mid] < rid)
+                lo = mid + 1;
+            else if (p[mid] > rid)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -lo - 1;
+    }
+
+    /**
+     * Union of sorted postings
+     */
+    private static int[] merge(int[] a, int[] b) {
+        final int[] r = new int[a[0] + b[0] + 1];
+        int i = 1, j = 1, k = 1;
+        while (i <= a[0] && j <= b[0]) {
+            if (a[i] < b[j])
+                r[k++] = a[i++];
+            else if (a[i] > b[j])
+                r[k++] = b[j++];
+            else {
+                r[k++] = a[i++];
+                ++j;
+            }
+        }
+        while (i <= a[0])
+            r[k++] = a[i++];
+        while (j <= b[0])
+            r[k++] = b[j++];
+        r[0] = k - 1;
+        return r;
+    }
+}
@@ -21,6 +21,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -38,12 +39,13 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-import javax.microedition.rms.RecordEnumeration;
-import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.InvalidRecordIDException;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotFoundException;
 import javax.microedition.rms.RecordStoreNotOpenException;
 
+import madrat.sys.Lz;
+import madrat.sys.Metrics;
 import madrat.sys.SecureRandom;
 import madrat.sys.Sha3;
 
@@ -51,9 +53,11 @@ import madrat.sys.Sha3;
  * Secured container for data based on RMS (JSR-37/JSR-118)
  */
 public final class Storage {
-    private static final int STORE_RID = 1;
-    private static final int INVALID_RID = 0;
-    private static final int VERSION = 1;
+    static final int STORE_RID = 1;
+    static final int INVALID_RID = 0;
+    private static final int VERSION_1 = 1;  // records only
+    private static final int VERSION = 2;    // records and directory
+
 
     public static final String F_CIPHER = ".cipher";
     public static final String   CIPHER = "AES";
@@ -61,16 +65,58 @@ public final class Storage {
     public static final String F_CIPHER_KEYLEN  = ".keylen";
     public static final int      CIPHER_KEYLEN  = 32;
     public static final int      CIPHER_IVLEN   = 16;
+    private static final int     CIPHER_BLOCKLEN = 16;
 
     public static final String F_HASH   = ".hash";
     public static final String   HASH   = "SHA3";
 
     private static final String F_CHECKSUM    = ".check"; // int 16bit
+    private static final String F_DIRECTORY   = ".dir";   // int, directory's RID
+    private static final String F_JOURNAL     = ".jnl";   // int, journal's RID
+    private static final String F_INDEX       = ".idx";   // int, search index's RID
+    private static final String F_NAMES       = ".names"; // int, fields' names dictionary's RID
+    static final String F_CATALOG             = ".catalog"; // int, stores' catalog RID (catalog's store)
+    private static final String F_COMPACTED   = ".from";  // string, source store of unfinished compaction
+
+    private static final int POOL_SIZE = 64*1024;  // kept free cipher buffers
+    private static final int CACHE_ENTRIES = 8;     // decrypted records
+    private static final int CACHE_SIZE = 32*1024;
+
+    static final int CHUNK_SIZE = 8*1024;                  // attachment's chunk record
+    static final int CHUNK_HEADER = 1 + Record.NONCE_LEN;  // LAYOUT_CHUNK + NONCE
+    static final int CHUNK_DATA = CHUNK_SIZE - CHUNK_HEADER;
+
+    private static final Record CHUNK = new Record(INVALID_RID); // decryptHead's mark of chunk record
 
-    private final RecordStore store_;
+    private static final int M_UNLOCK = Metrics.register("Unlock");
+    private static final int M_LOAD = Metrics.register("Load");
+    private static final int M_SAVE = Metrics.register("Save");
+    private static final int M_FIELD = Metrics.register("Load field");
+
+    private static final int LAYOUT_FLAGS = Field.LAYOUT_NAMES | Field.LAYOUT_FRAMED | Field.LAYOUT_UTF8;   // of written records
+
+    private static IBackend backend_ = new RmsBackend();
+
+    private IRecordStore store_;
     private final Record meta_;
     private final Vector recordHeads_ = new Vector();
+    private final RidIndex ridIndex_ = new RidIndex();   // RID -> recordHeads_ index
+    private final BufferPool pool_ = new BufferPool(POOL_SIZE);
+    private boolean isBatch_ = false;    // directory is saved by commitBatch
+    private final RecordCache cache_ = new RecordCache(CACHE_ENTRIES, CACHE_SIZE);
+    private Journal journal_;
     private final Cipher cipher_;
+    private int threads_ = 1;   // heads' scanning threads
+    private volatile boolean isUnlocking_ = false;  // heads are being scanned in background
+    private SearchIndex index_;     // null - not loaded or stale
+    private boolean isIndexModified_ = false;   // index_ is changed since it was saved (by destroy)
+    private NameDictionary names_;  // null - locked
+    private int chunks_ = 0;        // number of attachments' chunk records
+    private int directorySize_ = 0; // last directory's length, capacity for the next one
+    private Lz lz_ = new Lz();      // null - records are not compressed
+    private boolean isShuffled_ = true; // loaded records' fields are in random order
+    private final Vector written_ = new Vector();   // attachments written by the transaction
+    private final Vector inserted_ = new Vector();  // records inserted by the transaction
     private Key key_;
     private AlgorithmParameterSpec param_;
 
@@ -89,7 +135,7 @@ public final class Storage {
                             IOException,
                             GeneralSecurityException {
         try {
-            final RecordStore store = RecordStore.openRecordStore(storeName, false);
+            final IRecordStore store = backend_.openRecordStore(storeName, false);
             store.closeRecordStore();
             throw new IllegalArgumentException("Store is exists");
         } catch (RecordStoreNotFoundException e) {
@@ -107,7 +153,7 @@ public final class Storage {
         meta.set(F_CIPHER_KEYLEN, CIPHER_KEYLEN);
         meta.set(F_HASH, HASH);
 
-        RecordStore store = RecordStore.openRecordStore(storeName, true);
+        IRecordStore store = backend_.openRecordStore(storeName, true);
         try {
             store.addRecord(null, 0, 0); // reserve 1st record for meta info
             saveMeta(store, meta);
@@ -116,15 +162,63 @@ public final class Storage {
         }
     }
 
+    /**
+     * Set backend of record stores for all next openings, RMS is the default one
+     * @param backend
+     */
+    public static void setBackend(IBackend backend) {
+        if (null == backend)
+            throw new NullPointerException();
+        backend_ = backend;
+        Catalog.invalidate();
+    }
+
+    /**
+     * Keep stores' catalog in the store, see getStoreInfo
+     * The store is created by application, catalog is a plain record in it.
+     * @param storeName - null disables catalog
+     */
+    public static void setCatalog(String storeName) {
+        Catalog.setStore(storeName);
+    }
+
+    /**
+     * Get public info from catalog, the store is opened only if it is not cataloged
+     * @param storeName
+     * @return info
+     * @throws UnsupportedException - unexpected param(s)
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    public static StoreInfo getStoreInfo(String storeName) throws UnsupportedException,
+                                                                  RecordStoreException,
+                                                                  IOException {
+        byte[] meta = Catalog.get(backend_, storeName);
+        final boolean isCompacted = (null != meta) && (null != new StoreInfo(storeName, meta).getValue(F_COMPACTED, null));
+        if (null == meta || isCompacted) {
+            final IRecordStore store = backend_.openRecordStore(storeName, false);
+            try {
+                meta = store.getRecord(STORE_RID);
+                if (finishCompaction(store, new Record(STORE_RID, false, new DataInputStream(new ByteArrayInputStream(meta)))))
+                    meta = store.getRecord(STORE_RID);
+            } finally {
+                store.closeRecordStore();
+            }
+            Catalog.put(backend_, storeName, meta);
+        }
+        return new StoreInfo(storeName, meta);
+    }
+
     /**
      * Delete existing store (may be locked)
      * @param storeName
      */
     public static void wipeStore(String storeName) {
         try {
-            RecordStore.deleteRecordStore(storeName);
+            backend_.deleteRecordStore(storeName);
         } catch (RecordStoreException e) {
         }
+        Catalog.remove(backend_, storeName);
     }
 
     /**
@@ -135,32 +229,46 @@ public final class Storage {
      */
     private int findRid(Record r) throws LockedException {
         checkLocked();
+        return ridIndex_.get(r.getRid());
+    }
 
-        final int rid = r.getRid();
-        if (INVALID_RID != rid) {
-            for (int i = recordHeads_.size() - 1; i >= 0; --i) {
-                Record c = (Record)recordHeads_.elementAt(i);
-                if (null != c && rid == c.getRid())
-                    return i;
-            }
+    private void clearHeads() {
+        recordHeads_.removeAllElements();
+        ridIndex_.clear();
+    }
+
+    private void addHead(Record head) {
+        ridIndex_.put(head.getRid(), recordHeads_.size());
+        recordHeads_.addElement(head);
+    }
+
+    /**
+     * Remove head, the last head takes its place
+     * @param index
+     */
+    private void removeHead(int index) {
+        final Record r = (Record)recordHeads_.elementAt(index);
+        final int last = recordHeads_.size() - 1;
+        if (index != last) {
+            final Record moved = (Record)recordHeads_.elementAt(last);
+            recordHeads_.setElementAt(moved, index);
+            ridIndex_.put(moved.getRid(), index);
         }
-        return -1;
+        recordHeads_.removeElementAt(last);
+        ridIndex_.remove(r.getRid());
     }
 
     /**
      * Helper - find a max record size
      * @param store
-     * @param e
+     * @param rids
      * @return size in bytes
      * @throws RecordStoreException
      */
-    private static int maxRecordSize(RecordStore store, RecordEnumeration e) throws RecordStoreException {
+    private static int maxRecordSize(IRecordStore store, int[] rids) throws RecordStoreException {
         int len = 0;
-        e.reset();
-        while (e.hasNextElement()) {
-            final int rid = e.nextRecordId();
-            len = Math.max(len, store.getRecordSize(rid));
-        }
+        for (int i = 0; i < rids.length; ++i)
+            len = Math.max(len, store.getRecordSize(rids[i]));
         return len;
     }
 
@@ -186,12 +294,50 @@ public final class Storage {
      * @throws RecordStoreException
      * @throws IOException
      */
-    private static void saveMeta(RecordStore store, Record meta) throws NobodyException, RecordStoreException, IOException  {
+    private static void saveMeta(IRecordStore store, Record meta) throws NobodyException, RecordStoreException, IOException  {
+        final String name = store.getName();
+        final int catalog = Catalog.getRid(backend_, name);
+        if (INVALID_RID != catalog)
+            meta.set(F_CATALOG, catalog);   // catalog's store is saved by the application
+
+        byte[] buffer = saveMeta(meta);
+        Catalog.modify(backend_, name, buffer);
+        store.setRecord(meta.getRid(), buffer, 0, buffer.length);
+        Catalog.put(backend_, name, buffer);
+    }
+
+    /**
+     * Serialize meta record
+     * @param meta
+     * @return data
+     */
+    static byte[] saveMeta(Record meta) throws NobodyException, IOException {
         java.io.ByteArrayOutputStream bs = new java.io.ByteArrayOutputStream();
         DataOutputStream os = new DataOutputStream(bs);
         meta.save(os);
-        byte[] buffer = bs.toByteArray();
-        store.setRecord(meta.getRid(), buffer, 0, buffer.length);
+        return bs.toByteArray();
+    }
+
+    /**
+     * Check store's format and algorithms
+     * @param meta
+     * @throws UnsupportedException
+     */
+    static void checkMeta(Record meta) throws UnsupportedException {
+        final int version = meta.getFormat();
+        if (version < VERSION_1 || version > VERSION)
+            throw new UnsupportedException("version", Integer.toString(version));
+
+        // MD5, AES should work for CBC/ECB as J2ME platform
+        // SHA3/keccak - special implementation
+        final String cipher = meta.get(F_CIPHER, "Undef");
+        final long keylen = meta.get(F_CIPHER_KEYLEN, 0);
+        if (!CIPHER.equals(cipher) || CIPHER_KEYLEN != keylen)
+            throw new UnsupportedException("cipher", cipher + "-" +Long.toString(keylen*8));
+
+        final String hash = meta.get(F_HASH, "Undef");
+        if (!HASH.equals(hash))
+            throw new UnsupportedException("hash", hash);
     }
 
     /**
@@ -206,31 +352,31 @@ public final class Storage {
                                             RecordStoreException,
                                             IOException,
                                             GeneralSecurityException {
-        RecordStore store = RecordStore.openRecordStore(storeName, false);
+        IRecordStore store = backend_.openRecordStore(storeName, false);
         try {
             byte[] bs = store.getRecord(STORE_RID);
             DataInputStream is = new DataInputStream(new ByteArrayInputStream(bs));
 
             meta_ = new Record(STORE_RID, false, is);
-
-            final int version = meta_.getFormat();
-            if (version != VERSION)
-                throw new UnsupportedException("version", Integer.toString(version));
-
-            // MD5, AES should work for CBC/ECB as J2ME platform
-            // SHA3/keccak - special implementation
-            final String cipher = meta_.get(F_CIPHER, "Undef");
-            final long keylen = meta_.get(F_CIPHER_KEYLEN, 0);
-            if (!CIPHER.equals(cipher) || CIPHER_KEYLEN != keylen)
-                throw new UnsupportedException("cipher", cipher + "-" +Long.toString(keylen*8));
-
-            final String hash = meta_.get(F_HASH, "Undef");
-            if (!HASH.equals(hash))
-                throw new UnsupportedException("hash", hash);
+            checkMeta(meta_);
+
+            journal_ = new Journal(store, (int)meta_.get(F_JOURNAL, INVALID_RID));
+            if (journal_.recover(new int[] { STORE_RID, getDirectoryRid(), getIndexRid(), getNamesRid() })) {
+                // heads may be changed, directory will be rebuilt at unlock
+                try {
+                    store.deleteRecord(getDirectoryRid());
+                }
+                catch (InvalidRecordIDException e) {
+                }
+                bs = store.getRecord(STORE_RID);
+            }
+            if (finishCompaction(store, meta_))
+                bs = store.getRecord(STORE_RID);
+            Catalog.put(backend_, storeName, bs);
 
             store_ = store;
             store = null;
-            cipher_ = Cipher.getInstance("AES/CBC/NoPadding");
+            cipher_ = newCipher();
         }
         finally {
             if (null != store)
@@ -247,6 +393,19 @@ public final class Storage {
             throw new LockedException();
     }
 
+    private void checkWritable() throws LockedException {
+        checkLocked();
+        if (isUnlocking_)
+            throw new StorageException("Unlocking");
+    }
+
+    /**
+     * @return true if heads are still being loaded by unlock
+     */
+    public boolean isUnlocking() {
+        return isUnlocking_;
+    }
+
     public int getStorageSize() throws RecordStoreNotOpenException {
         if (null == store_)
             throw new RecordStoreNotOpenException();
@@ -259,6 +418,123 @@ public final class Storage {
         return store_.getSizeAvailable();
     }
 
+    /**
+     * Estimate of unused (fragmented) space: store size minus records' data,
+     * it includes RMS headers, so it is never zero
+     * @return bytes
+     * @throws RecordStoreException
+     */
+    public int getUnusedSize() throws RecordStoreException {
+        if (null == store_)
+            throw new RecordStoreNotOpenException();
+
+        final int[] rids = store_.getRecordIDs();
+        int used = 0;
+        for (int i = 0; i < rids.length; ++i)
+            used += store_.getRecordSize(rids[i]);
+        return Math.max(0, store_.getSize() - used);
+    }
+
+    /**
+     * Copy the store into a new RMS store and wipe this one
+     * @see #compact(String, IProgress)
+     */
+    public void compact(String storeName) throws IllegalStateException, RecordStoreException, IOException {
+        compact(storeName, null);
+    }
+
+    /**
+     * Copy the store into a new RMS store and wipe this one
+     * Records are copied as is (encrypted) and keep their RIDs - deleted ones are
+     * added and deleted again, so directory and journal stay valid and store
+     * may be locked. Meta is written last, so the interrupted copy is not a valid store.
+     * The copy's meta marks the source store till it is wiped, an interrupted swap
+     * is finished (the source is wiped) when the copy is opened or its info is got.
+     * @param storeName - new RMS-database name
+     * @param progress - callback (may be null), false cancels the copy
+     * @return false if cancelled (the copy is deleted)
+     * @throws IllegalStateException - batch is not finished
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    public boolean compact(String storeName, IProgress progress) throws IllegalStateException, RecordStoreException, IOException {
+        if (null == store_)
+            throw new RecordStoreNotOpenException();
+
+        if (isBatch_ || isUnlocking_ || Journal.IDLE != journal_.getState())
+            throw new IllegalStateException("Transaction");
+
+        final IRecordStore to = backend_.openRecordStore(storeName, true);
+        boolean isDone = false;
+        try {
+            if (STORE_RID != to.getNextRecordID())
+                throw new IllegalArgumentException("Store is exists");
+
+            to.addRecord(null, 0, 0); // reserve 1st record for meta info
+
+            final int next = store_.getNextRecordID();
+            for (int rid = STORE_RID + 1; rid < next; ++rid) {
+                if (null != progress && !progress.onProgress(rid - STORE_RID - 1, next - STORE_RID))
+                    return false;
+
+                byte[] data = null;
+                boolean isLive = true;
+                try {
+                    data = store_.getRecord(rid);
+                }
+                catch (InvalidRecordIDException e) {
+                    isLive = false;
+                }
+
+                final int newRid = to.addRecord(data, 0, (null == data) ? 0 : data.length);
+                if (rid != newRid)
+                    throw new RecordStoreException("Unexpected RID " + Integer.toString(newRid));
+                if (!isLive)
+                    to.deleteRecord(newRid);
+            }
+
+            meta_.set(F_COMPACTED, store_.getName());
+            final byte[] meta = saveMeta(meta_);
+            to.setRecord(STORE_RID, meta, 0, meta.length);
+            Catalog.put(backend_, storeName, meta);
+            isDone = true;
+        }
+        finally {
+            if (!isDone) {
+                meta_.remove(meta_.find(F_COMPACTED));
+                to.closeRecordStore();
+                wipeStore(storeName);
+            }
+        }
+
+        store_.closeRecordStore();
+        store_ = to;
+        journal_ = new Journal(to, journal_.getRid());
+        cache_.clear();
+        finishCompaction(store_, meta_);
+
+        if (null != progress)
+            progress.onProgress(1, 1);
+        return true;
+    }
+
+    /**
+     * Wipe the source store of compaction and then its mark
+     * @param store - the copy
+     * @param meta - its meta record
+     * @return true if meta is changed
+     */
+    private static boolean finishCompaction(IRecordStore store, Record meta) throws RecordStoreException, IOException {
+        final Field from = meta.find(F_COMPACTED);
+        if (null == from)
+            return false;
+
+        wipeStore(from.getString());
+        meta.remove(from);
+        saveMeta(store, meta);
+        return true;
+    }
+
     public void lock(byte[] key, byte[] salt)
                                     throws  InvalidKeyException,
                                             RecordStoreException,
@@ -270,6 +546,7 @@ public final class Storage {
 
         int check = cipherParams(key, salt);
         meta_.set(F_CHECKSUM, check);
+        names_ = new NameDictionary();
         save();
     }
 
@@ -279,9 +556,42 @@ public final class Storage {
                                             InvalidKeyException,
                                             SignatureException,
                                             GeneralSecurityException {
-        recordHeads_.removeAllElements();
+        unlock(key, salt, null);
+    }
+
+    /**
+     * Unlock and publish heads while they are decrypted
+     * Progress is reported after 1, 2, 4... heads and at the end, the heads
+     * are available (size/get) since the 1st report, but the store can't be modified
+     * till unlock is finished.
+     * @param key
+     * @param salt
+     * @param progress - may be null, false from it cancels unlocking
+     * @return false if cancelled (store is locked)
+     */
+    public boolean unlock(byte[] key, byte[] salt, IProgress progress)
+                                    throws  RecordStoreException,
+                                            IOException,
+                                            InvalidKeyException,
+                                            SignatureException,
+                                            GeneralSecurityException {
+        final long t = Metrics.start();
+        try {
+            return unlockStore(key, salt, progress);
+        } finally {
+            Metrics.stop(M_UNLOCK, t);
+        }
+    }
+
+    private boolean unlockStore(byte[] key, byte[] salt, IProgress progress)
+                                    throws  RecordStoreException,
+                                            IOException,
+                                            GeneralSecurityException {
+        clearHeads();
         key_ = null;
         param_ = null;
+        index_ = null;
+        names_ = null;
 
         Field fCheck = meta_.find(F_CHECKSUM);
         if (null == fCheck)
@@ -292,173 +602,950 @@ public final class Storage {
         if (check != (int)fCheck.getLong())
             throw new java.security.SignatureException("Key signature is invalid");
 
-
-        RecordEnumeration recEnum = null;
+        // records with names' IDs are unreadable without the dictionary
         try {
-            recEnum = store_.enumerateRecords(null, null, true);
+            names_ = loadNames();
+        }
+        finally {
+            if (null == names_) {
+                key_ = null;
+                param_ = null;
+            }
+        }
 
-            byte[] buffer;
-            int offset;
-            byte[] temp = null;
+        cache_.clear();
 
-            final int maxSize = maxRecordSize(store_, recEnum);
+        // transaction is left by a failed rollback (see abortTx)
+        if (journal_.recover(new int[] { STORE_RID, getDirectoryRid(), getIndexRid(), getNamesRid() })) {
             try {
-                offset = madrat.sys.Cipher.CIPER_BLOCK_RESERVE;
-                buffer = alloc(maxSize + offset);
-            } catch (OutOfMemoryError e) {
-                offset = 0;
-                buffer = alloc(maxSize + offset);
-                temp = alloc(madrat.sys.Cipher.CIPER_BLOCK_RESERVE + madrat.sys.Cipher.CIPER_BLOCK);
+                store_.deleteRecord(getDirectoryRid());
+            }
+            catch (InvalidRecordIDException e) {
+            }
+        }
+
+        // the store is read-only till the directory and the index are done
+        isUnlocking_ = (null != progress);
+        try {
+            if (!loadDirectory()) {
+                if (!scanRecords(progress)) {
+                    clearHeads();
+                    key_ = null;
+                    param_ = null;
+                    names_ = null;
+                    return false;
+                }
+                saveDirectory();
+            }
+            index_ = loadIndex();
+            isIndexModified_ = false;
+        }
+        finally {
+            isUnlocking_ = false;
+        }
+
+        if (null != progress)
+            progress.onProgress(size(), size());
+        return true;
+    }
+
+    /**
+     * Load all heads by records' decryption
+     * @param progress - may be null, scanning uses own cipher with it
+     * @return false if cancelled by progress
+     */
+    private boolean scanRecords(IProgress progress)
+                                throws  RecordStoreException,
+                                        IOException,
+                                        GeneralSecurityException {
+        clearHeads();
+
+        CipherBuffer cb = null;
+        try {
+            final int[] rids = store_.getRecordIDs();
+            final int maxSize = maxRecordSize(store_, rids);
+
+            if (threads_ > 1) {
+                scanParallel(rids, maxSize);
+                return true;
             }
 
-            for (recEnum.reset(); recEnum.hasNextElement(); ) {
-                int rid = recEnum.nextRecordId();
-                if (STORE_RID == rid)
+            final int total = rids.length - systemRecords();
+
+            // UI thread may load records by cipher_ during the scanning
+            final Cipher cipher = (null == progress) ? cipher_ : newCipher();
+            int report = 1;
+
+            cb = CipherBuffer.acquire(pool_, maxSize);
+            for (int i = 0; i < rids.length; ++i) {
+                final int rid = rids[i];
+                if (isSystemRid(rid))
                     continue;
-                recordHeads_.addElement(loadRecord(rid, true, buffer, offset, temp));
+                final Record head = loadRecord(cipher, rid, true, cb);
+                if (null == head)
+                    continue;   // attachment's chunk
+                addHead(head);
+
+                final int done = recordHeads_.size();
+                if (null != progress && done == report) {
+                    report <<= 1;
+                    if (!progress.onProgress(done, Math.max(done, total)))
+                        return false;
+                }
             }
+            return true;
         } finally {
-            if (null != recEnum) {
-                recEnum.destroy();
-            }
+            if (null != cb)
+                cb.release(pool_);
         }
     }
 
 
-    private int cipherParams(byte[] passwd, byte[] salt) throws
-                                                InvalidAlgorithmParameterException,
-                                                ShortBufferException,
-                                                InvalidKeyException,
-                                                NoSuchAlgorithmException,
-                                                NoSuchPaddingException,
-                                                SignatureException {
+    /**
+     * Load heads by several threads, each one has own cipher and buffer
+     * Heads are added in RIDs' order (as single-threaded scan does)
+     */
+    private void scanParallel(int[] all, int maxSize)
+                                    throws  RecordStoreException,
+                                            IOException,
+                                            GeneralSecurityException {
+        int[] rids = new int[all.length];
+        int count = 0;
+        for (int i = 0; i < all.length; ++i) {
+            if (isSystemRid(all[i]))
+                continue;
+            rids[count++] = all[i];
+        }
 
-        Sha3 sha3 = new Sha3(CIPHER_KEYLEN<<4); //  x2 (twice) x8 (bits)
-        byte[] hash = sha3.getHMmac(passwd, salt);
+        final int workers = Math.max(1, Math.min(threads_, count));
+        final Record[] heads = new Record[count];
+        final HeadScanner[] scanners = new HeadScanner[workers];
+        final Thread[] threads = new Thread[workers];
 
-        final int check =    (hash[CIPHER_KEYLEN+CIPHER_IVLEN-1] & 0xFF) |
-                            ((hash[CIPHER_KEYLEN+CIPHER_IVLEN-2] & 0xFF) <<8);
+        for (int i = 0; i < workers; ++i) {
+            scanners[i] = new HeadScanner(this, rids, count*i/workers, count*(i+1)/workers, heads, maxSize);
+            threads[i] = new Thread(scanners[i]);
+            threads[i].start();
+        }
 
-        SecretKeySpec   key   = new SecretKeySpec(hash, 0, CIPHER_KEYLEN, CIPHER);
-        IvParameterSpec param = new IvParameterSpec(hash, CIPHER_KEYLEN, CIPHER_IVLEN);
+        for (int i = 0; i < workers; ++i) {
+            while (threads[i].isAlive()) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
 
-        Random r = new Random(System.currentTimeMillis());
+        for (int i = 0; i < workers; ++i)
+            scanners[i].check();
 
-        for (int i = 0; i < hash.length; ++i)
-            hash[i] = (byte)r.nextInt();
+        for (int i = 0; i < count; ++i) {
+            if (null != heads[i])
+                addHead(heads[i]);
+        }
+    }
 
-        cipher_.init(Cipher.ENCRYPT_MODE, key, param);
+    /**
+     * Set number of threads for records' scanning at unlock (if there is no directory)
+     * 1 (default) - scan in the caller's thread, it is preferred for MIDP
+     * @param threads
+     */
+    public void setUnlockThreads(int threads) {
+        threads_ = Math.max(1, threads);
+    }
 
-        key_ = key;
-        param_ = param;
+    static Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return Cipher.getInstance("AES/CBC/NoPadding");
+    }
 
-        return check;
+    /**
+     * Decrypt record's head by own cipher (for scanning threads)
+     * @return head or null for attachment's chunk
+     */
+    Record loadHead(Cipher cipher, int rid, CipherBuffer cb)
+                        throws  RecordStoreException,
+                                GeneralSecurityException,
+                                IOException {
+        return loadRecord(cipher, rid, true, cb);
     }
 
-    public Record newRecord() {
-        return new Record(INVALID_RID);
+    BufferPool getPool() {
+        return pool_;
     }
 
-    private Record saveRecord(Record r) throws  LockedException,
-                                                NobodyException,
-                                                RecordStoreException,
-                                                GeneralSecurityException,
-                                                IOException {
-        checkLocked();
-        r.checkBody();
+    private int getDirectoryRid() {
+        return (int)meta_.get(F_DIRECTORY, INVALID_RID);
+    }
 
-        // Calculate len
-        long seed = SecureRandom.getInstance().getLong();
-        Random rand = new Random(seed);
+    private int getIndexRid() {
+        return (int)meta_.get(F_INDEX, INVALID_RID);
+    }
 
-        BufferOutputStream bs = new BufferOutputStream(null);
-        DataOutputStream os = new DataOutputStream(bs);
+    private int getNamesRid() {
+        return (int)meta_.get(F_NAMES, INVALID_RID);
+    }
 
-        r.save(os, rand, 256);
+    private boolean isSystemRid(int rid) {
+        return STORE_RID == rid
+                || getDirectoryRid() == rid
+                || journal_.getRid() == rid
+                || getIndexRid() == rid
+                || getNamesRid() == rid;
+    }
 
-        final int length = bs.pos();
-        final int maxSize = ((length + madrat.sys.Cipher.CIPER_BLOCK) / madrat.sys.Cipher.CIPER_BLOCK) * madrat.sys.Cipher.CIPER_BLOCK;
+    /**
+     * @return number of existing system records (meta, directory, journal, index)
+     */
+    private int systemRecords() {
+        final int[] rids = { getDirectoryRid(), journal_.getRid(), getIndexRid(), getNamesRid() };
+        int count = 1;
+        for (int i = 0; i < rids.length; ++i) {
+            if (INVALID_RID == rids[i])
+                continue;
+            try {
+                store_.getRecordSize(rids[i]);
+                ++count;
+            }
+            catch (RecordStoreException e) {
+            }
+        }
+        return count;
+    }
 
-        byte[] buffer;
-        int offset;
-        byte[] temp = null;
+    /**
+     * Load heads from directory
+     * @return false if directory is not available or stale
+     */
+    private boolean loadDirectory() {
+        final int rid = getDirectoryRid();
+        if (INVALID_RID == rid)
+            return false;
 
+        CipherBuffer cb = null;
         try {
-            offset = madrat.sys.Cipher.CIPER_BLOCK_RESERVE;
-            buffer = alloc(maxSize + offset);
-        } catch (OutOfMemoryError e) {
-            offset = 0;
-            buffer = alloc(maxSize + offset);
-            temp = alloc(madrat.sys.Cipher.CIPER_BLOCK_RESERVE + madrat.sys.Cipher.CIPER_BLOCK);
+            final Vector heads;
+            cb = CipherBuffer.acquire(pool_, store_.getRecordSize(rid));
+
+            final int dlen = decrypt(rid, cb);
+            BufferInputStream bs = new BufferInputStream(cb.buffer, 0, dlen);
+            DataInputStream is = new BufferDataInputStream(bs);
+            is.skip(CIPHER_IVLEN);  // nonce
+            heads = Directory.load(is, store_);
+            if (null == heads)
+                return false;
+
+            final int chunks = Stream.loadVarInt(is);
+            if (chunks < 0 || heads.size() + systemRecords() + chunks != store_.getNumRecords())
+                return false;
+            chunks_ = chunks;
+
+            clearHeads();
+            final int count = heads.size();
+            for (int i = 0; i < count; ++i)
+                addHead((Record)heads.elementAt(i));
+            return true;
         }
-
-        bs = new BufferOutputStream(buffer, offset);
-        os = new DataOutputStream(bs);
-        rand.setSeed(seed);
-        r.save(os, rand, 256);
-
-        Random padRand = new Random(SecureRandom.getInstance().getLong());
-        int padding = bs.pos() % madrat.sys.Cipher.CIPER_BLOCK;
-        if (padding > 0) {
-            padding = madrat.sys.Cipher.CIPER_BLOCK - padding;
+        catch (Exception e) {
+            return false;
+        }
+        finally {
+            if (null != cb)
+                cb.release(pool_);
         }
-        Record.savePad(os, padRand, padding);
+    }
 
-        cipher_.init(Cipher.ENCRYPT_MODE, key_, param_);
-        final int elen = madrat.sys.Cipher.cipher(cipher_, buffer, offset, bs.pos(), temp);
+    /**
+     * Load search index
+     * @return null if index is not available or stale
+     */
+    private SearchIndex loadIndex() {
+        final int rid = getIndexRid();
+        if (INVALID_RID == rid)
+            return null;
 
-        if (INVALID_RID != r.getRid()) {
-            store_.setRecord(r.getRid(), buffer, 0, elen);
-        } else {
-            r.setRid(store_.addRecord(buffer, 0, elen));
+        CipherBuffer cb = null;
+        try {
+            cb = CipherBuffer.acquire(pool_, store_.getRecordSize(rid));
+
+            final int dlen = decrypt(rid, cb);
+            DataInputStream is = new BufferDataInputStream(cb.buffer, 0, dlen);
+            is.skip(CIPHER_IVLEN);  // nonce
+            final SearchIndex index = SearchIndex.load(is);
+
+            // the index is built for the same records as the directory
+            final int count = recordHeads_.size();
+            if (index.getSeq() != journal_.getSeq() || index.size() != count)
+                return null;
+            for (int i = 0; i < count; ++i) {
+                if (!index.contains(((Record)recordHeads_.elementAt(i)).getRid()))
+                    return null;
+            }
+            return index;
+        }
+        catch (Exception e) {
+            return null;
+        }
+        finally {
+            if (null != cb)
+                cb.release(pool_);
         }
-        return loadRecord(r.getRid(), true, buffer, offset, temp);
     }
 
-    private Record loadRecord(int rid, boolean isHead, byte[] buffer, int offset, byte[] temp)
-                        throws  LockedException,
-                                RecordStoreException,
-                                InvalidAlgorithmParameterException,
-                                InvalidKeyException,
-                                ShortBufferException,
-                                IllegalBlockSizeException,
-                                BadPaddingException,
-                                IOException {
+    /**
+     * Write search index (nonce, index, random padding)
+     */
+    private void saveIndex() throws LockedException,
+                                    RecordStoreException,
+                                    GeneralSecurityException,
+                                    IOException {
         checkLocked();
 
-        BufferInputStream bs = new BufferInputStream(buffer);
-        DataInputStream is = new DataInputStream(bs);
-
-        int d = store_.getRecordSize(rid);
-        int elen = store_.getRecord(rid, buffer, offset);
-        cipher_.init(Cipher.DECRYPT_MODE, key_, param_);
-
-        final int dlen = madrat.sys.Cipher.cipher(cipher_, buffer, offset, elen, temp);
-        bs.reinit(0, dlen);
-        is.reset();
-        return new Record(rid, isHead, is);
-    }
+        final int rid;
+        final PoolOutputStream bs = new PoolOutputStream(pool_, madrat.sys.Cipher.CIPER_BLOCK_RESERVE, madrat.sys.Cipher.CIPER_BLOCK);
+        try {
+            final byte[] random = new byte[madrat.sys.Cipher.CIPER_BLOCK];
+            SecureRandom.getInstance().getBytes(random, 0, CIPHER_IVLEN);
+            bs.write(random, 0, CIPHER_IVLEN);
+            index_.save(new DataOutputStream(bs));
 
-    public Record cloneRecord(Record r, String name) throws
-                                                        LockedException,
-                                                        IOException,
-                                                        GeneralSecurityException,
-                                                        RecordStoreException {
-        Record cloned = load(r);
-        cloned.setRid(INVALID_RID);
-        if (null != name)
-            cloned.setName(name);
-        return cloned;
+            rid = writeSystemRecord(getIndexRid(), bs, random, false);
+        }
+        finally {
+            bs.close();
+        }
+        isIndexModified_ = false;
+        if (rid != getIndexRid()) {
+            meta_.set(F_INDEX, rid);
+            saveMeta(store_, meta_);
+        }
     }
 
     /**
-     * Insert new Record w/o RID
-     * @param r - new item (created by cloneRecord or newRecord)
-     * @throws IllegalArgumentException - item is already used in storage
-     * @throws NobodyException - storage it not opened or unlocked
-     * @throws GeneralSecurityException - decryption error
-     * @throws RecordStoreException - RMS error
-     * @throws IOException - parsing and load error
+     * Load dictionary of fields' names
+     * @return dictionary, empty one if store has no dictionary
+     */
+    private NameDictionary loadNames() throws   RecordStoreException,
+                                                GeneralSecurityException,
+                                                IOException {
+        final int rid = getNamesRid();
+        if (INVALID_RID == rid)
+            return new NameDictionary();
+
+        final CipherBuffer cb = CipherBuffer.acquire(pool_, store_.getRecordSize(rid));
+        try {
+            final int dlen = decrypt(rid, cb);
+            DataInputStream is = new BufferDataInputStream(cb.buffer, 0, dlen);
+            is.skip(CIPHER_IVLEN);  // nonce
+            return NameDictionary.load(is);
+        }
+        finally {
+            cb.release(pool_);
+        }
+    }
+
+    /**
+     * Write dictionary of fields' names (nonce, names, random padding)
+     * It is written before records with new names, names are only appended.
+     * The dictionary can't be rebuilt from records, so it is written by the
+     * transaction's journal (as a shadow) and a torn write is rolled back.
+     */
+    private void saveNames() throws LockedException,
+                                    RecordStoreException,
+                                    GeneralSecurityException,
+                                    IOException {
+        checkLocked();
+        if (!journal_.isActive())
+            throw new IllegalStateException("Transaction");
+
+        final int rid;
+        final PoolOutputStream bs = new PoolOutputStream(pool_, madrat.sys.Cipher.CIPER_BLOCK_RESERVE, madrat.sys.Cipher.CIPER_BLOCK);
+        try {
+            final byte[] random = new byte[madrat.sys.Cipher.CIPER_BLOCK];
+            SecureRandom.getInstance().getBytes(random, 0, CIPHER_IVLEN);
+            bs.write(random, 0, CIPHER_IVLEN);
+            names_.save(new DataOutputStream(bs));
+
+            rid = writeSystemRecord(getNamesRid(), bs, random, true);
+        }
+        finally {
+            bs.close();
+        }
+        names_.clearModify();
+        if (rid != getNamesRid()) {
+            meta_.set(F_NAMES, rid);
+            saveMeta(store_, meta_);
+        }
+    }
+
+    /**
+     * Pad, encrypt and write system record
+     * @param rid - record's RID or INVALID_RID
+     * @param bs - nonce and data, its buffer is detached
+     * @param random - buffer for padding (cipher block)
+     * @param isJournaled - existing record is written by a shadow of the active transaction
+     * @return RID
+     */
+    private int writeSystemRecord(int rid, PoolOutputStream bs, byte[] random, boolean isJournaled)
+                                    throws  RecordStoreException,
+                                            GeneralSecurityException,
+                                            IOException {
+        CipherBuffer cb = null;
+        try {
+            final int dataLen = bs.pos();
+            int padding = dataLen % madrat.sys.Cipher.CIPER_BLOCK;
+            if (padding > 0) {
+                padding = madrat.sys.Cipher.CIPER_BLOCK - padding;
+                SecureRandom.getInstance().getBytes(random, 0, padding);
+                bs.write(random, 0, padding);
+            }
+
+            cb = bs.detach();
+            final int elen = encrypt(cb, dataLen + padding);
+
+            if (INVALID_RID != rid) {
+                if (isJournaled && journal_.needsShadow(rid) && journal_.resolve(rid) == rid) {
+                    journal_.update(rid, store_.addRecord(cb.buffer, 0, elen));
+                    return rid;
+                }
+                try {
+                    store_.setRecord(isJournaled ? journal_.resolve(rid) : rid, cb.buffer, 0, elen);
+                    return rid;
+                } catch (InvalidRecordIDException e) {
+                }
+            }
+            return store_.addRecord(cb.buffer, 0, elen);
+        }
+        finally {
+            if (null != cb)
+                cb.release(pool_);
+        }
+    }
+
+    /**
+     * Find records by word's prefix in name, description or unprotected field names
+     * Index is rebuilt (all records are decrypted) if it is stale.
+     * @param prefix - any case, empty - all indexed records
+     * @return heads
+     */
+    public Vector search(String prefix) throws  LockedException,
+                                                RecordStoreException,
+                                                GeneralSecurityException,
+                                                IOException {
+        checkWritable();
+
+        if (null == index_) {
+            final SearchIndex index = new SearchIndex(journal_.getSeq());
+            final int count = recordHeads_.size();
+            for (int i = 0; i < count; ++i) {
+                final Record head = (Record)recordHeads_.elementAt(i);
+                index.put(head.getRid(), load(head));
+            }
+            index_ = index;
+            saveIndex();
+        }
+
+        final int[] rids = index_.search(prefix);
+        final Vector result = new Vector(rids.length);
+        for (int i = 0; i < rids.length; ++i) {
+            final int index = ridIndex_.get(rids[i]);
+            if (index >= 0)
+                result.addElement(recordHeads_.elementAt(index));
+        }
+        return result;
+    }
+
+    /**
+     * Write heads into directory
+     */
+    private void saveDirectory() throws LockedException,
+                                        RecordStoreException,
+                                        GeneralSecurityException,
+                                        IOException {
+        checkLocked();
+
+        final int count = recordHeads_.size();
+        final int[] sizes = new int[count];
+        for (int i = 0; i < count; ++i)
+            sizes[i] = store_.getRecordSize(((Record)recordHeads_.elementAt(i)).getRid());
+
+        // other records are attachments' chunks
+        chunks_ = store_.getNumRecords() - systemRecords() - count;
+
+        final int rid;
+        final PoolOutputStream bs = new PoolOutputStream(pool_, madrat.sys.Cipher.CIPER_BLOCK_RESERVE,
+                                                         Math.max(directorySize_, madrat.sys.Cipher.CIPER_BLOCK));
+        try {
+            final byte[] random = new byte[madrat.sys.Cipher.CIPER_BLOCK];
+            SecureRandom.getInstance().getBytes(random, 0, CIPHER_IVLEN);
+            bs.write(random, 0, CIPHER_IVLEN);
+
+            final DataOutputStream os = new DataOutputStream(bs);
+            Directory.save(os, recordHeads_, sizes);
+            Stream.saveVarInt(os, chunks_);
+            directorySize_ = bs.pos();
+
+            rid = writeSystemRecord(getDirectoryRid(), bs, random, false);
+        }
+        finally {
+            bs.close();
+        }
+        if (rid == getDirectoryRid())
+            return;
+
+        meta_.set(F_DIRECTORY, rid);
+        meta_.setFormat(VERSION);
+        saveMeta(store_, meta_);
+    }
+
+    /**
+     * Encrypt padded data
+     * @param cb - data is at offset
+     * @param length - data length (aligned by cipher block)
+     * @return encrypted length, result is at buffer's beginning
+     */
+    private int encrypt(CipherBuffer cb, int length) throws GeneralSecurityException {
+        synchronized (cipher_) {
+            cipher_.init(Cipher.ENCRYPT_MODE, key_, param_);
+            return madrat.sys.Cipher.cipher(cipher_, cb.buffer, cb.offset, length, cb.temp);
+        }
+    }
+
+    /**
+     * Read and decrypt record
+     * @param rid
+     * @param cb
+     * @return decrypted length, result is at buffer's beginning
+     */
+    private int decrypt(int rid, CipherBuffer cb)
+                        throws  RecordStoreException,
+                                InvalidAlgorithmParameterException,
+                                InvalidKeyException,
+                                ShortBufferException,
+                                IllegalBlockSizeException,
+                                BadPaddingException {
+        final int elen = store_.getRecord(rid, cb.buffer, cb.offset);
+        synchronized (cipher_) {
+            cipher_.init(Cipher.DECRYPT_MODE, key_, param_);
+            return madrat.sys.Cipher.cipher(cipher_, cb.buffer, cb.offset, elen, cb.temp);
+        }
+    }
+
+    private int cipherParams(byte[] passwd, byte[] salt) throws
+                                                InvalidAlgorithmParameterException,
+                                                ShortBufferException,
+                                                InvalidKeyException,
+                                                NoSuchAlgorithmException,
+                                                NoSuchPaddingException,
+                                                SignatureException {
+
+        Sha3 sha3 = new Sha3(CIPHER_KEYLEN<<4); //  x2 (twice) x8 (bits)
+        byte[] hash = sha3.getHMmac(passwd, salt);
+
+        final int check =    (hash[CIPHER_KEYLEN+CIPHER_IVLEN-1] & 0xFF) |
+                            ((hash[CIPHER_KEYLEN+CIPHER_IVLEN-2] & 0xFF) <<8);
+
+        SecretKeySpec   key   = new SecretKeySpec(hash, 0, CIPHER_KEYLEN, CIPHER);
+        IvParameterSpec param = new IvParameterSpec(hash, CIPHER_KEYLEN, CIPHER_IVLEN);
+
+        Random r = new Random(System.currentTimeMillis());
+
+        for (int i = 0; i < hash.length; ++i)
+            hash[i] = (byte)r.nextInt();
+
+        synchronized (cipher_) {
+            cipher_.init(Cipher.ENCRYPT_MODE, key, param);
+        }
+
+        key_ = key;
+        param_ = param;
+
+        return check;
+    }
+
+    public Record newRecord() {
+        return new Record(INVALID_RID);
+    }
+
+    private Record saveRecord(Record r) throws  LockedException,
+                                                NobodyException,
+                                                RecordStoreException,
+                                                GeneralSecurityException,
+                                                IOException {
+        final long t = Metrics.start();
+        try {
+            return writeRecord(r);
+        } finally {
+            Metrics.stop(M_SAVE, t);
+        }
+    }
+
+    private Record writeRecord(Record r) throws  LockedException,
+                                                NobodyException,
+                                                RecordStoreException,
+                                                GeneralSecurityException,
+                                                IOException {
+        checkWritable();
+        r.checkBody();
+        cache_.remove(r.getRid());
+        writeAttachments(r);
+
+        // new names are stored before the record
+        r.putNames(names_);
+        if (names_.isModified())
+            saveNames();
+
+        // Single pass: grow the output, then pad and encrypt in place
+        int capacity = madrat.sys.Cipher.CIPER_BLOCK;
+        if (INVALID_RID != r.getRid())
+            capacity = Math.max(capacity, store_.getRecordSize(r.getRid()));
+
+        CipherBuffer cb = null;
+        final PoolOutputStream bs = new PoolOutputStream(pool_, madrat.sys.Cipher.CIPER_BLOCK_RESERVE, capacity);
+        try {
+            DataOutputStream os = new FieldsOutputStream(bs, null, false);
+            final Random rand = new Random(SecureRandom.getInstance().getLong());
+            r.saveLayout(bs, rand, LAYOUT_FLAGS);
+            final int fieldsPos = bs.pos();
+            r.saveFields(bs, rand, 256, names_, LAYOUT_FLAGS);
+            if (null != lz_)
+                compressFields(bs, fieldsPos, Field.LAYOUT_2 | LAYOUT_FLAGS);
+
+            int padding = bs.pos() % madrat.sys.Cipher.CIPER_BLOCK;
+            if (padding > 0) {
+                padding = madrat.sys.Cipher.CIPER_BLOCK - padding;
+            }
+            bs.reserve(padding);
+            Record.savePad(os, new Random(SecureRandom.getInstance().getLong()), padding);
+            os.flush();
+
+            final int dataLen = bs.pos();
+            cb = bs.detach();
+            final int elen = encrypt(cb, dataLen);
+
+            if (INVALID_RID != r.getRid()) {
+                final int rid = journal_.resolve(r.getRid());
+                if (rid == r.getRid() && journal_.needsShadow(rid))
+                    journal_.update(rid, store_.addRecord(cb.buffer, 0, elen));
+                else
+                    store_.setRecord(rid, cb.buffer, 0, elen);
+            } else {
+                r.setRid(store_.addRecord(cb.buffer, 0, elen));
+            }
+            if (isBatch_)
+                return new Record(r.getRid(), r);
+            return loadRecord(cipher_, r.getRid(), true, cb);
+        }
+        finally {
+            if (null != cb)
+                cb.release(pool_);
+            else
+                bs.close();
+        }
+    }
+
+    /**
+     * Replace fields by LZ_LEN|LZ(fields) if it makes record shorter by a cipher page
+     * @param bs - record in layout 2
+     * @param fieldsPos - fields' position
+     * @param layout - record's layout byte
+     */
+    private void compressFields(PoolOutputStream bs, int fieldsPos, int layout) throws IOException {
+        final int page = madrat.sys.Cipher.CIPER_BLOCK;
+        final int length = bs.pos() - fieldsPos;
+        final int size = ((bs.pos() + page - 1) / page) * page;
+        final int limit = size - page - fieldsPos - 10;   // 2 varints
+        if (limit <= 0)
+            return;
+
+        final byte[] packed = pool_.acquire(limit);
+        try {
+            final int plen = lz_.compress(bs.getBuffer(), bs.getOffset() + fieldsPos, length, packed, 0, limit);
+            if (plen < 0)
+                return;
+
+            bs.seek(fieldsPos);
+            Stream.saveVarInt(bs, length);
+            Stream.saveVarInt(bs, plen);
+            bs.write(packed, 0, plen);
+            bs.set(0, layout | Field.LAYOUT_LZ);
+        }
+        finally {
+            pool_.release(packed);
+        }
+    }
+
+    /**
+     * Compress records' fields if it saves space (default)
+     * @param isEnabled
+     */
+    public void setCompression(boolean isEnabled) {
+        if (!isEnabled)
+            lz_ = null;
+        else if (null == lz_)
+            lz_ = new Lz();
+    }
+
+    /**
+     * Place loaded records' fields in random order (default)
+     * Heads are never shuffled, they have no fields.
+     * @param isEnabled
+     */
+    public void setShuffle(boolean isEnabled) {
+        isShuffled_ = isEnabled;
+    }
+
+    private Record loadRecord(Cipher cipher, int rid, boolean isHead, CipherBuffer cb)
+                        throws  LockedException,
+                                RecordStoreException,
+                                InvalidAlgorithmParameterException,
+                                InvalidKeyException,
+                                ShortBufferException,
+                                IllegalBlockSizeException,
+                                BadPaddingException,
+                                IOException {
+        checkLocked();
+
+        final int elen = store_.getRecord(journal_.resolve(rid), cb.buffer, cb.offset);
+
+        // cipher_ is shared by UI and unlock's threads
+        final int dlen;
+        synchronized (cipher) {
+            if (isHead) {
+                final Record head = decryptHead(cipher, rid, cb.buffer, cb.offset, elen);
+                if (CHUNK == head)
+                    return null;
+                if (null != head)
+                    return head;
+            }
+
+            cipher.init(Cipher.DECRYPT_MODE, key_, param_);
+            dlen = madrat.sys.Cipher.cipher(cipher, cb.buffer, cb.offset, elen, cb.temp);
+        }
+
+        BufferInputStream bs = new BufferInputStream(cb.buffer);
+        DataInputStream is = new BufferDataInputStream(bs);
+        if (!isHead)
+            cache_.put(rid, cb.buffer, 0, dlen);
+        bs.reinit(0, dlen);
+        is.reset();
+        return new Record(rid, isHead, is, names_, isShuffled_);
+    }
+
+    /**
+     * Decrypt only leading blocks with META (layout 2)
+     * @param rid
+     * @param buffer - encrypted data, it is not modified
+     * @param offset
+     * @param elen
+     * @return head, CHUNK for attachment's chunk or null if record has other layout
+     */
+    private Record decryptHead(Cipher cipher, int rid, byte[] buffer, int offset, int elen)
+                        throws  InvalidAlgorithmParameterException,
+                                InvalidKeyException,
+                                ShortBufferException,
+                                IOException {
+        cipher.init(Cipher.DECRYPT_MODE, key_, param_);
+
+        // |L|NONCE| - 1st block, head length - at 2nd
+        byte[] head = new byte[Math.min(elen, CIPHER_BLOCKLEN<<1)];
+        int hlen = cipher.update(buffer, offset, head.length, head, 0);
+
+        try {
+            if (hlen == head.length && Field.LAYOUT_CHUNK == (head[0] & 0xFF))
+                return CHUNK;
+
+            if (hlen != head.length || Field.LAYOUT_2 != (head[0] & Field.LAYOUT_MASK))
+                return null;
+
+            BufferInputStream bs = new BufferInputStream(head, 0, hlen);
+            bs.skip(1 + Record.NONCE_LEN);
+            final int headLen = Stream.loadVarInt(bs);
+            if (headLen < 0)
+                return null;
+
+            final int need = ((bs.pos() + headLen + CIPHER_BLOCKLEN - 1) / CIPHER_BLOCKLEN) * CIPHER_BLOCKLEN;
+            if (need > elen)
+                return null;
+
+            if (need > hlen) {
+                final byte[] full = new byte[need];
+                System.arraycopy(head, 0, full, 0, hlen);
+                wipe(head);
+                head = full;
+                hlen += cipher.update(buffer, offset + hlen, need - hlen, head, hlen);
+                if (hlen != need)
+                    return null;
+            }
+            return new Record(rid, true, new BufferDataInputStream(head, 0, hlen));
+        }
+        finally {
+            wipe(head);
+        }
+    }
+
+    private static void wipe(byte[] data) {
+        for (int i = data.length - 1; i >= 0; --i)
+            data[i] = 0;
+    }
+
+    public Record cloneRecord(Record r, String name) throws
+                                                        LockedException,
+                                                        IOException,
+                                                        GeneralSecurityException,
+                                                        RecordStoreException {
+        Record cloned = load(r);
+        cloned.setRid(INVALID_RID);
+        if (null != name)
+            cloned.setName(name);
+
+        // attachments are copied from this store when the clone is saved
+        final int count = cloned.size();
+        for (int i = 0; i < count; ++i) {
+            final Field f = cloned.at(i);
+            if (Field.ATTACHMENT != f.getType())
+                continue;
+            final AttachmentField af = (AttachmentField)f;
+            af.setSource(new StoredAttachment(this, af.getChunks(), af.getLength()));
+        }
+        return cloned;
+    }
+
+    /**
+     * Stream of attachment's content, it decrypts one chunk at a time
+     * by own cipher (so it may be read by another thread)
+     * @param f - attachment of loaded record
+     * @return stream (caller closes it)
+     * @throws LockedException
+     * @throws IOException
+     */
+    public InputStream openAttachment(AttachmentField f) throws LockedException, IOException {
+        checkLocked();
+        if (f.isPending())
+            return f.getSource().open();
+        return new ChunkInputStream(this, f.getChunks(), f.getLength());
+    }
+
+    /**
+     * Write pending attachments into chunk records
+     */
+    private void writeAttachments(Record r) throws IOException {
+        final int count = r.size();
+        for (int i = 0; i < count; ++i) {
+            final Field f = r.at(i);
+            if (Field.ATTACHMENT != f.getType() || !((AttachmentField)f).isPending())
+                continue;
+
+            final AttachmentField af = (AttachmentField)f;
+            final ChunkOutputStream os = new ChunkOutputStream(this);
+            InputStream is = null;
+            try {
+                is = af.getSource().open();
+                os.transfer(is);
+                os.close();
+            }
+            finally {
+                os.release();
+                if (null != is)
+                    is.close();
+            }
+            af.assign(os.getChunks(), os.getLength());
+            written_.addElement(af);
+        }
+    }
+
+    /**
+     * Encrypt and add chunk record
+     * @param cb - chunk's data is at offset + CHUNK_HEADER
+     * @param length - CHUNK_HEADER + data length
+     * @return RID
+     */
+    int writeChunk(CipherBuffer cb, int length) throws  RecordStoreException,
+                                                        GeneralSecurityException {
+        cb.buffer[cb.offset] = (byte)Field.LAYOUT_CHUNK;
+        SecureRandom.getInstance().getBytes(cb.buffer, cb.offset + 1, Record.NONCE_LEN);
+
+        int padding = length % madrat.sys.Cipher.CIPER_BLOCK;
+        if (padding > 0) {
+            padding = madrat.sys.Cipher.CIPER_BLOCK - padding;
+            SecureRandom.getInstance().getBytes(cb.buffer, cb.offset + length, padding);
+        }
+
+        final int elen = encrypt(cb, length + padding);
+        final int rid = store_.addRecord(cb.buffer, 0, elen);
+        ++chunks_;
+        return rid;
+    }
+
+    /**
+     * Read and decrypt chunk record
+     * @return decrypted length, chunk is at buffer's beginning
+     */
+    int readChunk(Cipher cipher, int rid, CipherBuffer cb) throws   RecordStoreException,
+                                                                    GeneralSecurityException {
+        checkLocked();
+        final int elen = store_.getRecord(rid, cb.buffer, cb.offset);
+        cipher.init(Cipher.DECRYPT_MODE, key_, param_);
+        final int dlen = madrat.sys.Cipher.cipher(cipher, cb.buffer, cb.offset, elen, cb.temp);
+        if (dlen < CHUNK_HEADER || Field.LAYOUT_CHUNK != (cb.buffer[0] & 0xFF))
+            throw new InvalidRecordIDException("Chunk " + Integer.toString(rid));
+        return dlen;
+    }
+
+    /**
+     * Full record (with attachments) before its change, if store has chunks
+     */
+    private Record loadPrevious(Record head) throws RecordStoreException,
+                                                    GeneralSecurityException,
+                                                    IOException {
+        return (chunks_ > 0) ? load(head) : null;
+    }
+
+    /**
+     * Delete chunks of previous attachments, which are not used by the new record
+     * @param old - previous record (null - nothing to delete)
+     * @param r - new record (null - record is removed)
+     */
+    private void removeChunks(Record old, Record r) throws RecordStoreException {
+        if (null == old)
+            return;
+
+        final int count = old.size();
+        for (int i = 0; i < count; ++i) {
+            final Field f = old.at(i);
+            if (Field.ATTACHMENT != f.getType())
+                continue;
+
+            final AttachmentField af = (AttachmentField)f;
+            if (null != r && isUsed(r, af))
+                continue;
+
+            final int[] chunks = af.getChunks();
+            for (int j = 0; j < chunks.length; ++j) {
+                journal_.remove(chunks[j]);
+                --chunks_;
+            }
+        }
+    }
+
+    private static boolean isUsed(Record r, AttachmentField af) {
+        final int count = r.size();
+        for (int i = 0; i < count; ++i) {
+            final Field f = r.at(i);
+            if (Field.ATTACHMENT == f.getType() && af.isSameContent((AttachmentField)f))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Insert new Record w/o RID
+     * @param r - new item (created by cloneRecord or newRecord)
+     * @throws IllegalArgumentException - item is already used in storage
+     * @throws NobodyException - storage it not opened or unlocked
+     * @throws GeneralSecurityException - decryption error
+     * @throws RecordStoreException - RMS error
+     * @throws IOException - parsing and load error
      */
     public void insertNew(Record r) throws  IllegalArgumentException,
                                             LockedException,
@@ -472,8 +1559,23 @@ public final class Storage {
         if (-1 != findRid(r))
             throw new IllegalArgumentException("Existed");
 
-        Record head = saveRecord(r);
-        recordHeads_.addElement(head);
+        checkWritable();
+        final boolean isOwn = !journal_.isActive();
+        try {
+            if (isOwn)
+                beginTx();
+            inserted_.addElement(r);
+            Record head = saveRecord(r);
+            addHead(head);
+            if (null != index_)
+                index_.put(r.getRid(), r);
+            if (isOwn)
+                commitTx();
+        }
+        finally {
+            if (isOwn)
+                abortTx();
+        }
     }
 
     /**
@@ -492,17 +1594,35 @@ public final class Storage {
                                             GeneralSecurityException,
                                             RecordStoreException,
                                             IOException {
-        checkLocked();
+        checkWritable();
 
         final int index = findRid(r);
         if (-1 == index)
             throw new IllegalArgumentException("Unexisted");
 
-        Record head = saveRecord(r);
-        recordHeads_.setElementAt(head, index);
+        final boolean isOwn = !journal_.isActive();
+        try {
+            if (isOwn)
+                beginTx();
+            final Record old = loadPrevious((Record)recordHeads_.elementAt(index));
+            Record head = saveRecord(r);
+            removeChunks(old, r);
+            recordHeads_.setElementAt(head, index);
+            if (null != index_)
+                index_.put(r.getRid(), r);
+            if (isOwn)
+                commitTx();
+        }
+        finally {
+            if (isOwn)
+                abortTx();
+        }
     }
 
-    public void remove(Record r) throws IllegalArgumentException, RecordStoreException {
+    public void remove(Record r) throws IllegalArgumentException,
+                                        RecordStoreException,
+                                        GeneralSecurityException,
+                                        IOException {
         final int index = findRid(r);
         if (-1 == index)
             throw new IllegalArgumentException();
@@ -510,20 +1630,198 @@ public final class Storage {
         remove(index);
     }
 
-    public void remove(int index) throws RecordStoreException {
-        checkLocked();
+    public void remove(int index) throws  RecordStoreException,
+                                            GeneralSecurityException,
+                                            IOException {
+        checkWritable();
 
         if (index < 0 || index >= recordHeads_.size())
             throw new IllegalArgumentException();
 
-        Record r = (Record)recordHeads_.elementAt(index);
-        recordHeads_.removeElementAt(index);
-        final int rid = r.getRid();
-        if (INVALID_RID != rid) {
-            store_.deleteRecord(rid);
+        final boolean isOwn = !journal_.isActive();
+        try {
+            if (isOwn)
+                beginTx();
+            Record r = (Record)recordHeads_.elementAt(index);
+            final Record old = loadPrevious(r);
+            removeHead(index);
+            final int rid = r.getRid();
+            cache_.remove(rid);
+            if (null != index_)
+                index_.remove(rid);
+            if (INVALID_RID != rid) {
+                journal_.remove(rid);
+            }
+            removeChunks(old, null);
+            if (isOwn)
+                commitTx();
+        }
+        finally {
+            if (isOwn)
+                abortTx();
+        }
+    }
+
+    /**
+     * Start journal's transaction, the caller calls abortTx on any failure (it is started if the journal is active)
+     */
+    private void beginTx() throws RecordStoreException, IOException {
+        final int rid = journal_.begin();
+        if (rid != (int)meta_.get(F_JOURNAL, INVALID_RID)) {
+            meta_.set(F_JOURNAL, rid);
+            saveMeta(store_, meta_);
         }
     }
 
+    /**
+     * Commit point, apply changes and save directory
+     */
+    private void commitTx() throws  LockedException,
+                                    RecordStoreException,
+                                    GeneralSecurityException,
+                                    IOException {
+        journal_.commit();
+        saveDirectory();
+        if (null != index_) {
+            index_.setSeq(journal_.getSeq());
+            isIndexModified_ = true;
+        }
+        journal_.finish();
+        written_.removeAllElements();
+        inserted_.removeAllElements();
+    }
+
+    /**
+     * Rollback uncommitted transaction and reload heads
+     * On failure the store is locked (heads may not match the records),
+     * the transaction is rolled back by next unlock or opening
+     */
+    private void abortTx() {
+        if (!journal_.isActive())
+            return;
+
+        // chunks are deleted, attachments will be written again
+        for (int i = written_.size() - 1; i >= 0; --i)
+            ((AttachmentField)written_.elementAt(i)).reset();
+        written_.removeAllElements();
+
+        // inserted records are deleted, they may be inserted again
+        for (int i = inserted_.size() - 1; i >= 0; --i)
+            ((Record)inserted_.elementAt(i)).setRid(INVALID_RID);
+        inserted_.removeAllElements();
+
+        // names' shadow is dropped, the dictionary (a superset of the stored one) is written again
+        if (null != names_)
+            names_.modify();
+
+        try {
+            cache_.clear();
+            index_ = null;
+            journal_.rollback(new int[] { STORE_RID, getDirectoryRid(), getIndexRid(), getNamesRid() });
+            if (!loadDirectory()) {
+                scanRecords(null);
+                saveDirectory();
+            }
+        }
+        catch (Exception e) {
+            clearHeads();
+            key_ = null;
+            param_ = null;
+            names_ = null;
+            index_ = null;
+            isBatch_ = false;
+        }
+    }
+
+    /**
+     * Start bulk modification: heads are built from saved records
+     * w/o re-decryption, all changes are a single journal's transaction,
+     * directory is written by commitBatch.
+     * If commitBatch is not called, the changes are rolled back at next opening.
+     * @throws LockedException
+     * @throws RecordStoreException
+     * @throws IOException
+     */
+    public void beginBatch() throws LockedException, RecordStoreException, IOException {
+        checkWritable();
+        if (isBatch_ || journal_.isActive())
+            return;
+
+        try {
+            beginTx();
+            isBatch_ = true;
+        }
+        finally {
+            if (!isBatch_)
+                abortTx();
+        }
+    }
+
+    /**
+     * Finish bulk modification and save directory
+     * @throws LockedException
+     * @throws RecordStoreException
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public void commitBatch() throws    LockedException,
+                                        RecordStoreException,
+                                        GeneralSecurityException,
+                                        IOException {
+        if (!isBatch_)
+            return;
+
+        isBatch_ = false;
+        commitTx();
+    }
+
+    /**
+     * Discard bulk modification
+     */
+    public void abortBatch() {
+        if (!isBatch_)
+            return;
+
+        isBatch_ = false;
+        abortTx();
+    }
+
+    public boolean isBatch() {
+        return isBatch_;
+    }
+
+    /**
+     * Cipher buffers' pool statistic
+     * @return number of reused buffers
+     */
+    public int getBufferHits() {
+        return pool_.getHits();
+    }
+
+    /**
+     * Cipher buffers' pool statistic
+     * @return number of allocated buffers
+     */
+    public int getBufferMisses() {
+        return pool_.getMisses();
+    }
+
+    /**
+     * Set limits of decrypted records' cache
+     * @param entries - max records, 0 - disable cache
+     * @param bytes - max decrypted bytes
+     */
+    public void setCacheLimits(int entries, int bytes) {
+        cache_.setLimits(entries, bytes);
+    }
+
+    /**
+     * Wipe decrypted records' cache
+     */
+    public void clearCache() {
+        cache_.clear();
+    }
+
     public int size() throws LockedException {
         checkLocked();
         return recordHeads_.size();
@@ -566,29 +1864,76 @@ public final class Storage {
         if (INVALID_RID == rid)
             throw new IllegalArgumentException();
 
-        int recSize = store_.getRecordSize(rid);
-        byte[] buffer;
-        int offset;
-        byte[] temp = null;
+        final long t = Metrics.start();
+        final byte[] cached = cache_.get(rid);
+        if (null != cached) {
+            try {
+                return new Record(rid, false, new BufferDataInputStream(cached, 0, cached.length), names_, isShuffled_);
+            }
+            finally {
+                Metrics.stop(M_LOAD, t);
+            }
+        }
 
+        final CipherBuffer cb = CipherBuffer.acquire(pool_, store_.getRecordSize(journal_.resolve(rid)));
         try {
-            offset = madrat.sys.Cipher.CIPER_BLOCK_RESERVE;
-            buffer = alloc(recSize + offset);
-        } catch (OutOfMemoryError e) {
-            offset = 0;
-            buffer = alloc(recSize + offset);
-            temp = alloc(madrat.sys.Cipher.CIPER_BLOCK_RESERVE + madrat.sys.Cipher.CIPER_BLOCK);
+            return loadRecord(cipher_, rid, false, cb);
+        }
+        finally {
+            cb.release(pool_);
+            Metrics.stop(M_LOAD, t);
         }
-        return loadRecord(rid, false, buffer, offset, temp);
     }
 
 
+    /**
+     * Load single field, fields of framed records are skipped w/o parsing
+     * @param r - record or head
+     * @param name - field's name
+     * @return the field or null
+     */
+    public Field loadField(Record r, String name) throws
+                                    LockedException,
+                                    RecordStoreException,
+                                    InvalidAlgorithmParameterException,
+                                    InvalidKeyException,
+                                    ShortBufferException,
+                                    IllegalBlockSizeException,
+                                    BadPaddingException,
+                                    IOException {
+        checkLocked();
+
+        final int rid = r.getRid();
+
+        if (INVALID_RID == rid)
+            throw new IllegalArgumentException();
+
+        final long t = Metrics.start();
+        CipherBuffer cb = null;
+        try {
+            final byte[] cached = cache_.get(rid);
+            if (null != cached)
+                return Record.loadField(rid, new BufferDataInputStream(cached, 0, cached.length), name, names_);
+
+            cb = CipherBuffer.acquire(pool_, store_.getRecordSize(journal_.resolve(rid)));
+            final int dlen = decrypt(journal_.resolve(rid), cb);
+            cache_.put(rid, cb.buffer, 0, dlen);
+            return Record.loadField(rid, new BufferDataInputStream(cb.buffer, 0, dlen), name, names_);
+        }
+        finally {
+            if (null != cb)
+                cb.release(pool_);
+            Metrics.stop(M_FIELD, t);
+        }
+    }
+
     public void wipe() {
         if (null == store_)
             return;
 
         try {
             final String name = store_.getName();
+            isIndexModified_ = false;
             destroy();
             wipeStore(name);
         } catch (RecordStoreNotOpenException e) {
@@ -596,12 +1941,31 @@ public final class Storage {
     }
 
     public void destroy() {
+        // the index is saved once per session, a stale one (e.g. after a crash) is rebuilt by next search
+        if (isIndexModified_ && null != index_ && !isLocked() && !journal_.isActive()) {
+            try {
+                saveIndex();
+            }
+            catch (Exception e) {
+            }
+        }
+        isIndexModified_ = false;
+
         key_ = null;
         param_ = null;
+        index_ = null;
+        names_ = null;
+        isBatch_ = false;
+        written_.removeAllElements();
+        inserted_.removeAllElements();
+        cache_.clear();
+        pool_.clear();
 
         try {
             if (null != cipher_) {
-                cipher_.init(Cipher.ENCRYPT_MODE, null, null);
+                synchronized (cipher_) {
+                    cipher_.init(Cipher.ENCRYPT_MODE, null, null);
+                }
             }
         } catch (Exception ex) {
         }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Public (meta) info about store without opening it (see Storage.getStoreInfo)
+ */
+public final class StoreInfo {
+    private final String storeName_;
+    private final Record meta_;
+
+    StoreInfo(String storeName, byte[] meta) throws IOException {
+        storeName_ = storeName;
+        meta_ = new Record(Storage.STORE_RID, false, new DataInputStream(new ByteArrayInputStream(meta)));
+        Storage.checkMeta(meta_);
+    }
+
+    public String getStoreName() {
+        return storeName_;
+    }
+
+    public String getName() {
+        return meta_.getName();
+    }
+
+    public int getIcon() {
+        return meta_.getIcon();
+    }
+
+    public String getDescription() {
+        return meta_.getString();
+    }
+
+    public String getValue(String name, String def) {
+        return meta_.get(name, def);
+    }
+
+    public long getValue(String name, long def) {
+        return meta_.get(name, def);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME Storage (madrat.storage).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.storage;
+
+import java.io.InputStream;
+
+/**
+ * Attachment of another record (or store) as a source of a cloned attachment
+ */
+final class StoredAttachment implements IAttachmentSource {
+    private final Storage storage_;
+    private final int[] chunks_;
+    private final int length_;
+
+    StoredAttachment(Storage storage, int[] chunks, int length) {
+        storage_ = storage;
+        chunks_ = chunks;
+        length_ = length;
+    }
+
+    public InputStream open() {
+        return new ChunkInputStream(storage_, chunks_, length_);
+    }
+}
@@ -17,18 +17,26 @@
 
 package madrat.storage;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 /**
  * Helpers for reading/writing simple types
  */
 public final class Stream {
+    static final char REPLACEMENT = '\uFFFD'; // malformed UTF-8
+
     private Stream() {
     }
 
     public static int loadVarInt(java.io.InputStream is) throws IOException {
+        if (is instanceof BufferDataInputStream)
+            return ((BufferDataInputStream)is).buffer.readVarInt();
+        if (is instanceof BufferInputStream)
+            return ((BufferInputStream)is).readVarInt();
+
         int v = 0;
         boolean next = true;
 
@@ -46,6 +54,18 @@ public final class Stream {
         return ~(v>>>1);
     }
 
+    /**
+     * @param value
+     * @return length of VARINT (see saveVarInt)
+     */
+    static int varIntLength(int value) {
+        int v = (value >= 0) ? (value << 1) : (((~value) << 1) | 1);
+        int len = 1;
+        while (0 != (v >>>= 7))
+            ++len;
+        return len;
+    }
+
     public static int saveVarInt(java.io.OutputStream os, int value) throws IOException {
         if (value >= 0)
             value <<= 1;
@@ -64,21 +84,143 @@ public final class Stream {
         return len;
     }
 
+    /**
+     * Load VARINT(CHARS) + UTF-8
+     * Memory buffers are decoded in place, other streams are read by bytes.
+     * @param in
+     * @return string
+     * @throws IOException
+     */
     public static String loadVarString(java.io.InputStream in) throws IOException {
         final int len = loadVarInt(in);
         if (len < 0)
             throw new IndexOutOfBoundsException();
 
-        InputStreamReader js = new InputStreamReader(in, "UTF-8");
-        StringBuffer buf = new StringBuffer(len);
-        for (int i = len; i >0; --i) {
-            final int f = js.read();
-            if (f == -1)
-                throw new EOFException();
-            buf.append((char)f);
+        if (in instanceof BufferDataInputStream)
+            return ((BufferDataInputStream)in).buffer.readUtf8(len, -1);
+        if (in instanceof BufferInputStream)
+            return ((BufferInputStream)in).readUtf8(len, -1);
+
+        final char[] c = new char[len + 1];
+        int n = 0;
+        while (n < len) {
+            int v = readByte(in);
+            if (v < 0x80) {
+                c[n++] = (char)v;
+                continue;
+            }
+
+            int need;
+            if (v >= 0xF8 || v < 0xC0) {
+                c[n++] = REPLACEMENT;
+                continue;
+            } else if (v >= 0xF0) {
+                need = 3;
+                v &= 0x07;
+            } else if (v >= 0xE0) {
+                need = 2;
+                v &= 0x0F;
+            } else {
+                need = 1;
+                v &= 0x1F;
+            }
+
+            for (; need > 0; --need)
+                v = (v << 6) | (readByte(in) & 0x3F);
+
+            if (v >= 0x10000) {
+                v -= 0x10000;
+                c[n++] = (char)(0xD800 | (v >> 10));
+                c[n++] = (char)(0xDC00 | (v & 0x3FF));
+            } else
+                c[n++] = (char)v;
         }
-        String str = buf.toString();
-        return str;
+        return new String(c, 0, n);
+    }
+
+    private static int readByte(java.io.InputStream in) throws IOException {
+        final int b = in.read();
+        if (-1 == b)
+            throw new EOFException();
+        return b;
+    }
+
+    /**
+     * Load byte, memory buffer is read by its cursor
+     * @param is
+     * @return 0..255
+     * @throws IOException
+     */
+    static int loadUnsignedByte(DataInputStream is) throws IOException {
+        if (is instanceof BufferDataInputStream)
+            return ((BufferDataInputStream)is).buffer.readUnsigned();
+        return is.readUnsignedByte();
+    }
+
+    /**
+     * Load long, memory buffer is read by its cursor
+     * @param is
+     * @return value
+     * @throws IOException
+     */
+    static long loadLong(DataInputStream is) throws IOException {
+        if (is instanceof BufferDataInputStream)
+            return ((BufferDataInputStream)is).buffer.readLong();
+        return is.readLong();
+    }
+
+    /**
+     * Load VARINT(BYTES) + UTF-8 (Field.LAYOUT_UTF8)
+     * @param in
+     * @return string
+     * @throws IOException
+     */
+    static String loadUtf8(java.io.InputStream in) throws IOException {
+        final int len = loadVarInt(in);
+        if (len < 0)
+            throw new IndexOutOfBoundsException();
+
+        if (in instanceof BufferDataInputStream)
+            return ((BufferDataInputStream)in).buffer.readUtf8(-1, len);
+
+        final byte[] data = new byte[len];
+        new DataInputStream(in).readFully(data);
+        return new String(data, "UTF-8");
+    }
+
+    static int saveUtf8(java.io.OutputStream os, String data) throws IOException {
+        if (null == data || 0 == data.length())
+            return saveVarInt(os, 0);
+
+        final byte[] bin = data.getBytes("UTF-8");
+        final int len = saveVarInt(os, bin.length);
+        os.write(bin);
+        return len + bin.length;
+    }
+
+    /**
+     * Load string of field in record's format
+     * @param is
+     * @return string
+     * @throws IOException
+     */
+    static String loadString(DataInputStream is) throws IOException {
+        if (is instanceof BufferDataInputStream && ((BufferDataInputStream)is).isUtf8)
+            return loadUtf8(is);
+        return loadVarString(is);
+    }
+
+    /**
+     * Save string of field in record's format
+     * @param os
+     * @param data
+     * @throws IOException
+     */
+    static void saveString(DataOutputStream os, String data) throws IOException {
+        if (os instanceof FieldsOutputStream && ((FieldsOutputStream)os).isUtf8)
+            saveUtf8(os, data);
+        else
+            saveVarString(os, data);
     }
 
     public static int saveVarString(java.io.OutputStream os, String data) throws IOException {
@@ -40,7 +40,7 @@ public class StringField extends Field {
     }
 
     protected StringField(boolean isMeta, boolean isProtected, String name, int icon, int format, java.io.DataInputStream is) throws IOException {
-        this(isMeta, isProtected, name, icon,  format, Stream.loadVarString(is));
+        this(isMeta, isProtected, name, icon,  format, Stream.loadString(is));
     }
 
     protected StringField(boolean isMeta, boolean isProtected, String name, int icon, int format, String value) {
@@ -52,7 +52,7 @@ public class StringField extends Field {
 
     public void save(java.io.DataOutputStream os) throws IOException {
         super.save(os);
-        Stream.saveVarString(os, value_);
+        Stream.saveString(os, value_);
     }
 
     public String getString() throws StorageException, IllegalArgumentException {
@@ -32,6 +32,8 @@ public final class Cipher {
     public static final int CIPER_BLOCK = 1024;  // encode/decode by 4K 'page'
     public static final int CIPER_BLOCK_RESERVE = CIPER_BLOCK + (CIPER_BLOCK>>1);
 
+    private static final int M_CIPHER = Metrics.register("Cipher");
+
     private static int cipher(javax.crypto.Cipher cipher,
                                 byte[] buffer, int offset, int len)
                                         throws  ShortBufferException,
@@ -62,6 +64,20 @@ public final class Cipher {
                                             ShortBufferException,
                                             BadPaddingException,
                                             IllegalBlockSizeException {
+        final long t = Metrics.start();
+        try {
+            return cipherInplace(cipher, buffer, offset, len, temp);
+        } finally {
+            Metrics.stop(M_CIPHER, t);
+        }
+    }
+
+    private static int cipherInplace(javax.crypto.Cipher cipher,
+                                byte[] buffer, int offset, int len,
+                                byte[] temp)
+                                    throws  ShortBufferException,
+                                            BadPaddingException,
+                                            IllegalBlockSizeException {
         int tempLen = 0;
         if (offset < CIPER_BLOCK_RESERVE) {
             if (null == temp)
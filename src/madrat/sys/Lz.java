@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME helpers (madrat.sys).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.sys;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Small LZ77 compressor (64K window), the hash table is reused between calls
+ *  literals - |0LLLLLLL|L+1 bytes|
+ *  match    - |1MMMMMMM|DIST HI|DIST LO| copy M+4 bytes from DIST back
+ */
+public final class Lz {
+    private static final int HASH_BITS = 12;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_MATCH = MIN_MATCH + 0x7F;
+    private static final int MAX_LITERALS = 0x80;
+    private static final int WINDOW = 0xFFFF;
+
+    private final int[] table_ = new int[1 << HASH_BITS];
+
+    private static int hash(byte[] b, int i) {
+        final int v = (b[i] & 0xFF) | ((b[i+1] & 0xFF) << 8) | ((b[i+2] & 0xFF) << 16) | (b[i+3] << 24);
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Compress data
+     * @param src
+     * @param off
+     * @param len
+     * @param dst
+     * @param doff
+     * @param limit - max compressed length
+     * @return compressed length or -1 if it is more than limit
+     */
+    public synchronized int compress(byte[] src, int off, int len, byte[] dst, int doff, int limit) {
+        for (int i = table_.length - 1; i >= 0; --i)
+            table_[i] = -1;
+
+        final int end = off + len;
+        final int dend = doff + Math.min(limit, dst.length - doff);
+        int o = doff;
+        int anchor = off;
+        int i = off;
+
+        while (i + MIN_MATCH <= end) {
+            final int h = hash(src, i);
+            final int ref = table_[h];
+            table_[h] = i;
+
+            if (ref < 0 || i - ref > WINDOW
+                    || src[ref] != src[i] || src[ref+1] != src[i+1]
+                    || src[ref+2] != src[i+2] || src[ref+3] != src[i+3]) {
+                ++i;
+                continue;
+            }
+
+            o = literals(src, anchor, i - anchor, dst, o, dend);
+            if (o < 0 || o + 3 > dend)
+                return -1;
+
+            int mlen = MIN_MATCH;
+            while (i + mlen < end && mlen < MAX_MATCH && src[ref + mlen] == src[i + mlen])
+                ++mlen;
+
+            final int dist = i - ref;
+            dst[o++] = (byte)(0x80 | (mlen - MIN_MATCH));
+            dst[o++] = (byte)(dist >> 8);
+            dst[o++] = (byte)dist;
+
+            i += mlen;
+            anchor = i;
+        }
+
+        o = literals(src, anchor, end - anchor, dst, o, dend);
+        return (o < 0) ? -1 : o - doff;
+    }
+
+    private static int literals(byte[] src, int off, int len, byte[] dst, int o, int dend) {
+        while (len > 0) {
+            final int n = Math.min(len, MAX_LITERALS);
+            if (o + 1 + n > dend)
+                return -1;
+            dst[o++] = (byte)(n - 1);
+            System.arraycopy(src, off, dst, o, n);
+            o += n;
+            off += n;
+            len -= n;
+        }
+        return o;
+    }
+
+    /**
+     * Decompress from stream, the output is used as a window
+     * @param is
+     * @param clen - compressed length (it is read exactly)
+     * @param dst
+     * @param doff
+     * @param dlen - decompressed length
+     * @throws IOException - broken data
+     */
+    public static void decompress(InputStream is, int clen, byte[] dst, int doff, int dlen) throws IOException {
+        final int dend = doff + dlen;
+        int o = doff;
+
+        while (clen > 0) {
+            final int t = read(is);
+            --clen;
+
+            if (0 == (t & 0x80)) {
+                int n = t + 1;
+                if (n > clen || o + n > dend)
+                    throw new IOException("LZ literals");
+                clen -= n;
+                while (n > 0) {
+                    final int r = is.read(dst, o, n);
+                    if (r <= 0)
+                        throw new EOFException();
+                    o += r;
+                    n -= r;
+                }
+                continue;
+            }
+
+            if (clen < 2)
+                throw new IOException("LZ match");
+            final int mlen = (t & 0x7F) + MIN_MATCH;
+            final int dist = (read(is) << 8) | read(is);
+            clen -= 2;
+
+            int from = o - dist;
+            if (0 == dist || from < doff || o + mlen > dend)
+                throw new IOException("LZ match");
+            for (int i = mlen; i > 0; --i)
+                dst[o++] = dst[from++];
+        }
+
+        if (o != dend)
+            throw new IOException("LZ length");
+    }
+
+    private static int read(InputStream is) throws IOException {
+        final int b = is.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Anatoly madRat L. Berenblit <beranat@users.noreply.github.com>
+ *
+ * This file is part of madRat's J2ME helpers (madrat.sys).
+ *
+ * This package is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This package distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with package.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package madrat.sys;
+
+/**
+ * Operation counters: calls, cumulative and max time (milliseconds)
+ * Slots are registered once (static init), updates do not allocate.
+ * Usage:
+ *   private static final int M_LOAD = Metrics.register("Load");
+ *   final long t = Metrics.start();
+ *   try { ... } finally { Metrics.stop(M_LOAD, t); }
+ */
+public final class Metrics {
+    private static final int MAX = 16;
+
+    private static final String[] names_ = new String[MAX];
+    private static final int[]  counts_ = new int[MAX];
+    private static final long[] totals_ = new long[MAX];
+    private static final int[]  max_ = new int[MAX];
+    private static int size_;
+
+    private Metrics() {
+    }
+
+    /**
+     * Get slot for operation
+     * @param name - operation name (not translated)
+     * @return slot id, the same for the same name; -1 if no free slots
+     */
+    public static synchronized int register(String name) {
+        for (int i = 0; i < size_; ++i) {
+            if (names_[i].equals(name))
+                return i;
+        }
+        if (size_ == MAX)
+            return -1;
+        names_[size_] = name;
+        return size_++;
+    }
+
+    public static long start() {
+        return System.currentTimeMillis();
+    }
+
+    public static void stop(int id, long start) {
+        add(id, (int)(System.currentTimeMillis() - start));
+    }
+
+    public static synchronized void add(int id, int ms) {
+        if (id < 0)
+            return;
+        ++counts_[id];
+        totals_[id] += ms;
+        if (ms > max_[id])
+            max_[id] = ms;
+    }
+
+    public static synchronized void reset() {
+        for (int i = 0; i < size_; ++i) {
+            counts_[i] = 0;
+            totals_[i] = 0;
+            max_[i] = 0;
+        }
+    }
+
+    public static synchronized int size() {
+        return size_;
+    }
+
+    public static synchronized String getName(int id) {
+        return names_[id];
+    }
+
+    public static synchronized int getCount(int id) {
+        return counts_[id];
+    }
+
+    public static synchronized long getTotal(int id) {
+        return totals_[id];
+    }
+
+    public static synchronized int getMax(int id) {
+        return max_[id];
+    }
+}